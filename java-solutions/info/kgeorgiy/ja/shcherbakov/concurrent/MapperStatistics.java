@@ -0,0 +1,151 @@
+package info.kgeorgiy.ja.shcherbakov.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and contention counters of {@link ParallelMapperImpl}.
+ * All updates are lock-free, so recording does not add contention on the job queue.
+ */
+public class MapperStatistics implements MapperStatisticsMBean {
+    // Monitor entries faster than this are considered uncontended
+    private static final long CONTENTION_THRESHOLD_NANOS = 1_000;
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder lockWait = new LongAdder();
+    private final LongAdder wakeups = new LongAdder();
+    private final LongAdder wakeupWait = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+    private final AtomicLongArray workerBusy;
+
+    MapperStatistics(int workers) {
+        workerBusy = new AtomicLongArray(workers);
+    }
+
+    void jobsSubmitted(int count) {
+        submitted.add(count);
+    }
+
+    void lockAcquired(long requestedNanos) {
+        long waited = System.nanoTime() - requestedNanos;
+        if (waited > CONTENTION_THRESHOLD_NANOS) {
+            contended.increment();
+            lockWait.add(waited);
+        }
+    }
+
+    // Workers woken together by notifyAll() queue up for the monitor they waited on; the wakeup itself is included
+    void monitorReacquired(long notifiedNanos) {
+        wakeups.increment();
+        wakeupWait.add(System.nanoTime() - notifiedNanos);
+    }
+
+    long jobStarted(long enqueuedNanos) {
+        long now = System.nanoTime();
+        started.increment();
+        waitTime.record(now - enqueuedNanos);
+        return now;
+    }
+
+    void jobFinished(int worker, long startedNanos) {
+        long elapsed = System.nanoTime() - startedNanos;
+        completed.increment();
+        runTime.record(elapsed);
+        workerBusy.addAndGet(worker, elapsed);
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return Math.max(0, submitted.sum() - started.sum());
+    }
+
+    @Override
+    public long getSubmittedJobs() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getCompletedJobs() {
+        return completed.sum();
+    }
+
+    @Override
+    public double getMeanWaitNanos() {
+        return waitTime.getMean();
+    }
+
+    @Override
+    public long getWaitNanosP99() {
+        return waitTime.getPercentile(0.99);
+    }
+
+    @Override
+    public double getMeanRunNanos() {
+        return runTime.getMean();
+    }
+
+    @Override
+    public long getRunNanosP99() {
+        return runTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getContendedLockAcquires() {
+        return contended.sum();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWait.sum();
+    }
+
+    @Override
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    @Override
+    public long getWakeupReacquireNanos() {
+        return wakeupWait.sum();
+    }
+
+    @Override
+    public double[] getWorkerUtilization() {
+        long uptime = Math.max(1, System.nanoTime() - startNanos);
+        double[] result = new double[workerBusy.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (double) workerBusy.get(i) / uptime;
+        }
+        return result;
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getRunTime() {
+        return runTime;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(getQueueDepth(), getSubmittedJobs(), getCompletedJobs(),
+                waitTime.getBuckets(), runTime.getBuckets(),
+                getContendedLockAcquires(), getLockWaitNanos(), getWakeups(), getWakeupReacquireNanos(),
+                getWorkerUtilization());
+    }
+
+    /**
+     * Point-in-time copy of the counters. Histogram buckets follow {@link LatencyHistogram} layout.
+     */
+    public record Snapshot(long queueDepth, long submittedJobs, long completedJobs,
+                           long[] waitNanosHistogram, long[] runNanosHistogram,
+                           long contendedLockAcquires, long lockWaitNanos,
+                           long wakeups, long wakeupReacquireNanos,
+                           double[] workerUtilization) {
+    }
+}
@@ -0,0 +1,45 @@
+package info.kgeorgiy.ja.shcherbakov.concurrent;
+
+/**
+ * JMX view of {@link ParallelMapperImpl} load.
+ */
+public interface MapperStatisticsMBean {
+    /** Returns number of jobs waiting in the queue. */
+    long getQueueDepth();
+
+    /** Returns number of jobs submitted since start. */
+    long getSubmittedJobs();
+
+    /** Returns number of jobs completed since start. */
+    long getCompletedJobs();
+
+    /** Returns mean time in nanoseconds a job spent in the queue. */
+    double getMeanWaitNanos();
+
+    /** Returns 99th percentile upper bound of job queue time in nanoseconds. */
+    long getWaitNanosP99();
+
+    /** Returns mean job run time in nanoseconds. */
+    double getMeanRunNanos();
+
+    /** Returns 99th percentile upper bound of job run time in nanoseconds. */
+    long getRunNanosP99();
+
+    /** Returns number of queue monitor acquisitions that had to wait for another thread. */
+    long getContendedLockAcquires();
+
+    /** Returns total time in nanoseconds spent waiting for the queue monitor. */
+    long getLockWaitNanos();
+
+    /** Returns number of times a worker woken by a submission got the queue monitor back. */
+    long getWakeups();
+
+    /**
+     * Returns total time in nanoseconds from waking workers until each of them got the queue monitor back,
+     * including the wakeup itself; grows when many workers are woken at once.
+     */
+    long getWakeupReacquireNanos();
+
+    /** Returns share of wall time each worker spent running jobs. */
+    double[] getWorkerUtilization();
+}
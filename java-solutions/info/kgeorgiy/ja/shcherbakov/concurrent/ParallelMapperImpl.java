@@ -2,24 +2,47 @@ package info.kgeorgiy.ja.shcherbakov.concurrent;
 
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 public class ParallelMapperImpl implements ParallelMapper {
+    public static final int DEFAULT_PRIORITY = 0;
 
-    private final Queue<Runnable> jobsQueue = new ArrayDeque<>();
+    private final FairQueue jobsQueue = new FairQueue();
     private final List<Thread> subThreads;
+    private final MapperStatistics statistics;
+    private final Set<CompletableFuture<?>> pendingFutures = ConcurrentHashMap.newKeySet();
+    private ObjectName mBeanName;
+    // Time of the last notifyAll() on jobsQueue, guarded by it
+    private long lastNotify;
 
     public ParallelMapperImpl(int threads) {
         subThreads = new ArrayList<>(threads);
+        statistics = new MapperStatistics(threads);
         for (int i = 0; i < threads; i++) {
+            int worker = i;
             subThreads.add(new Thread(() -> {
                 try {
                     while (!Thread.interrupted()) {
-                        Runnable job;
+                        Job job;
+                        long lockRequested = System.nanoTime();
                         synchronized (jobsQueue) {
+                            statistics.lockAcquired(lockRequested);
                             while (jobsQueue.isEmpty()) {
+                                long notified = lastNotify;
                                 jobsQueue.wait();
+                                // Not counted on spurious wakeups
+                                if (lastNotify != notified) {
+                                    statistics.monitorReacquired(lastNotify);
+                                }
                             }
                             if (Thread.interrupted()) {
                                 break;
@@ -27,7 +50,9 @@ public class ParallelMapperImpl implements ParallelMapper {
                             job = jobsQueue.poll();
                         }
                         if (job != null) {
-                            job.run();
+                            long started = statistics.jobStarted(job.enqueued);
+                            job.task.run();
+                            statistics.jobFinished(worker, started);
                         }
                     }
                 } catch (InterruptedException ignored) {
@@ -41,23 +66,141 @@ public class ParallelMapperImpl implements ParallelMapper {
 
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+        return map(f, args, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Same as {@link #map(Function, List)} with the given priority.
+     * Calls with higher priority are served first, calls with equal priority share workers round-robin.
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args, int priority)
+            throws InterruptedException {
         SynchronizedResult<R> result = new SynchronizedResult<>(args.size());
+        List<Runnable> tasks = new ArrayList<>(args.size());
+        for (int i = 0; i < args.size(); i++) {
+            int finalI = i;
+            tasks.add(() -> {
+                R res = f.apply(args.get(finalI));
+                if (Thread.interrupted()) {
+                    result.interrupted();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                result.set(finalI, res);
+            });
+        }
+        submit(tasks, priority);
+        return result.collect();
+    }
+
+    /**
+     * Non-blocking version of {@link #map(Function, List)}.
+     * The future fails with the first exception thrown by {@code f} and is cancelled when the mapper is closed.
+     * Cancelling it skips elements not started yet.
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return mapAsync(f, args, DEFAULT_PRIORITY);
+    }
+
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                      int priority) {
+        List<R> result = new ArrayList<>(Collections.nCopies(args.size(), null));
+        CompletableFuture<List<R>> future = new CompletableFuture<>();
+        submit(f, args, (value, index) -> result.set(index, value), priority, future, () -> future.complete(result));
+        return future;
+    }
+
+    /**
+     * Passes every result with its index to {@code consumer} on the worker thread as soon as it is computed.
+     * The returned future completes after the last result has been consumed; cancelling it skips elements not started yet.
+     */
+    public <T, R> CompletableFuture<Void> mapStreaming(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       ObjIntConsumer<? super R> consumer) {
+        return mapStreaming(f, args, consumer, DEFAULT_PRIORITY);
+    }
+
+    public <T, R> CompletableFuture<Void> mapStreaming(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       ObjIntConsumer<? super R> consumer, int priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        submit(f, args, consumer, priority, future, () -> future.complete(null));
+        return future;
+    }
+
+    // Tasks check the future itself, so completing or cancelling it stops the rest of the call
+    private <T, R> void submit(Function<? super T, ? extends R> f, List<? extends T> args,
+                               ObjIntConsumer<? super R> consumer, int priority,
+                               CompletableFuture<?> future, Runnable complete) {
+        if (args.isEmpty()) {
+            complete.run();
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(args.size());
+        List<Runnable> tasks = new ArrayList<>(args.size());
+        for (int i = 0; i < args.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    consumer.accept(f.apply(args.get(index)), index);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    complete.run();
+                }
+            });
+        }
+        pendingFutures.add(future);
+        future.whenComplete((ignored, e) -> pendingFutures.remove(future));
+        submit(tasks, priority);
+    }
+
+    private void submit(List<Runnable> tasks, int priority) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        long lockRequested = System.nanoTime();
         synchronized (jobsQueue) {
-            for (int i = 0; i < args.size(); i++) {
-                int finalI = i;
-                    jobsQueue.add(() -> {
-                        R res = f.apply(args.get(finalI));
-                        if (Thread.interrupted()) {
-                            result.interrupted();
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                        result.set(finalI, res);
-                    });
+            statistics.lockAcquired(lockRequested);
+            long enqueued = System.nanoTime();
+            Queue<Job> group = new ArrayDeque<>(tasks.size());
+            for (Runnable task : tasks) {
+                group.add(new Job(enqueued, task));
             }
+            jobsQueue.addGroup(priority, group);
+            statistics.jobsSubmitted(tasks.size());
+            lastNotify = System.nanoTime();
             jobsQueue.notifyAll();
         }
-        return result.collect();
+    }
+
+    public MapperStatistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized void registerMBean(String name) throws JMException {
+        if (mBeanName != null) {
+            throw new IllegalStateException("Statistics MBean is already registered as " + mBeanName);
+        }
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, objectName);
+        mBeanName = objectName;
+    }
+
+    private synchronized void unregisterMBean() {
+        if (mBeanName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(mBeanName);
+        } catch (JMException e) {
+            System.err.println("Unable to unregister statistics MBean: " + e.getMessage());
+        }
+        mBeanName = null;
     }
 
     @Override
@@ -69,6 +212,43 @@ public class ParallelMapperImpl implements ParallelMapper {
             } catch (InterruptedException ignored) {
             }
         }
+        for (CompletableFuture<?> future : pendingFutures) {
+            future.cancel(false);
+        }
+        unregisterMBean();
+    }
+
+    private record Job(long enqueued, Runnable task) {
+    }
+
+    // Jobs of one call form a group; groups are served round-robin within the highest non-empty priority.
+    // Guarded by its own monitor.
+    private static class FairQueue {
+        private final NavigableMap<Integer, Queue<Queue<Job>>> groups = new TreeMap<>(Comparator.reverseOrder());
+
+        void addGroup(int priority, Queue<Job> group) {
+            groups.computeIfAbsent(priority, p -> new ArrayDeque<>()).add(group);
+        }
+
+        boolean isEmpty() {
+            return groups.isEmpty();
+        }
+
+        Job poll() {
+            Map.Entry<Integer, Queue<Queue<Job>>> top = groups.firstEntry();
+            if (top == null) {
+                return null;
+            }
+            Queue<Queue<Job>> rotation = top.getValue();
+            Queue<Job> group = rotation.poll();
+            Job job = group.poll();
+            if (!group.isEmpty()) {
+                rotation.add(group);
+            } else if (rotation.isEmpty()) {
+                groups.remove(top.getKey());
+            }
+            return job;
+        }
     }
 
     private static class SynchronizedResult<T> extends ArrayList<T> {
@@ -0,0 +1,119 @@
+package info.kgeorgiy.ja.shcherbakov.concurrent;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Speedup benchmark of {@link IterativeParallelism} with and without {@link ParallelMapperImpl}
+ * against sequential and parallel streams.
+ * Prints one CSV row per (size, predicate, threads, implementation) with median time and speedup
+ * relative to the sequential stream.
+ */
+public class ParallelismBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    // Time-based, so microsecond runs get enough iterations for the JIT and slow runs are not repeated for minutes
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final int MIN_ITERATIONS = 5;
+    private static final int MAX_SAMPLES = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 1) {
+            System.err.println("ParallelismBenchmark [maxSize]");
+            return;
+        }
+        long maxSize = args.length == 1 ? Long.parseLong(args[0]) : 100_000_000;
+
+        Map<String, Predicate<Integer>> predicates = new LinkedHashMap<>();
+        predicates.put("cheap", x -> (x & 7) == 0);
+        predicates.put("expensive", ParallelismBenchmark::expensive);
+
+        System.out.println("size,predicate,threads,implementation,medianNanos,speedup");
+        for (long size = 100; size <= maxSize; size *= 10) {
+            List<Integer> values = new IntRange((int) size);
+            for (Map.Entry<String, Predicate<Integer>> predicate : predicates.entrySet()) {
+                // Expensive predicate on the largest sizes takes minutes per run
+                if (predicate.getKey().equals("expensive") && size > 10_000_000) {
+                    continue;
+                }
+                run(values, predicate.getKey(), predicate.getValue());
+            }
+        }
+    }
+
+    private static void run(List<Integer> values, String name, Predicate<Integer> predicate) throws InterruptedException {
+        long sequential = measure(() -> values.stream().filter(predicate).count());
+        print(values.size(), name, 1, "stream", sequential, sequential);
+        long parallel = measure(() -> values.parallelStream().filter(predicate).count());
+        print(values.size(), name, Runtime.getRuntime().availableProcessors(), "parallelStream", parallel, sequential);
+
+        IterativeParallelism plain = new IterativeParallelism();
+        for (int threads : THREADS) {
+            print(values.size(), name, threads, "IterativeParallelism",
+                    measure(() -> plain.count(threads, values, predicate)), sequential);
+            try (ParallelMapperImpl mapper = new ParallelMapperImpl(threads)) {
+                IterativeParallelism mapped = new IterativeParallelism(mapper);
+                print(values.size(), name, threads, "IterativeParallelism+ParallelMapperImpl",
+                        measure(() -> mapped.count(threads, values, predicate)), sequential);
+            }
+        }
+    }
+
+    private static long measure(Task task) throws InterruptedException {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        for (int i = 0; i < MIN_ITERATIONS || System.nanoTime() < warmupEnd; i++) {
+            blackhole ^= task.run();
+        }
+        long[] times = new long[MAX_SAMPLES];
+        int samples = 0;
+        long measureEnd = System.nanoTime() + MEASURE_NANOS;
+        while (samples < MAX_SAMPLES && (samples < MIN_ITERATIONS || System.nanoTime() < measureEnd)) {
+            long start = System.nanoTime();
+            blackhole ^= task.run();
+            times[samples++] = System.nanoTime() - start;
+        }
+        Arrays.sort(times, 0, samples);
+        return times[samples / 2];
+    }
+
+    private static void print(int size, String predicate, int threads, String implementation, long nanos, long baseline) {
+        System.out.printf(Locale.ROOT, "%d,%s,%d,%s,%d,%.3f%n",
+                size, predicate, threads, implementation, nanos, (double) baseline / nanos);
+    }
+
+    private static boolean expensive(int x) {
+        long hash = x;
+        for (int i = 0; i < 200; i++) {
+            hash = hash * 6364136223846793005L + 1442695040888963407L;
+        }
+        return (hash & 7) == 0;
+    }
+
+    // Keeps results observable so the JIT cannot drop the measured work
+    private static volatile long blackhole;
+
+    @FunctionalInterface
+    private interface Task {
+        long run() throws InterruptedException;
+    }
+
+    // Array-free list of 0..size-1, so sizes up to 1e8 fit in the default heap
+    private static class IntRange extends AbstractList<Integer> implements RandomAccess {
+        private final int size;
+
+        IntRange(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, size);
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter with double hashing over one 64-bit fingerprint.
+ * Test-and-set of one URL is made atomic by a lock stripe chosen by the fingerprint,
+ * so concurrent visits of the same URL report it as new exactly once.
+ */
+class BloomVisitedSet implements VisitedSet {
+    private static final int STRIPES = 64;
+
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashes;
+
+    BloomVisitedSet(final long expectedUrls, final double falsePositiveRate) {
+        if (expectedUrls <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Expected URLs must be positive and false positive rate in (0, 1)");
+        }
+        long optimalBits = (long) Math.ceil(-expectedUrls * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+        bits = new AtomicLongArray(words);
+        bitCount = (long) words * Long.SIZE;
+        hashes = Math.max(1, (int) Math.round((double) bitCount / expectedUrls * Math.log(2)));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public int visit(final String url, final int depth) {
+        long fingerprint = VisitedSet.fingerprint(url);
+        boolean seen = true;
+        synchronized (stripes[(int) (fingerprint >>> 58)]) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = index(fingerprint, i);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long previous = bits.getAndAccumulate(word, mask, (a, b) -> a | b);
+                seen &= (previous & mask) != 0;
+            }
+        }
+        return seen ? Integer.MAX_VALUE : 0;
+    }
+
+    @Override
+    public int depth(final String url) {
+        long fingerprint = VisitedSet.fingerprint(url);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(fingerprint, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return 0;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean tracksDepth() {
+        return false;
+    }
+
+    private long index(final long fingerprint, final int i) {
+        long h1 = fingerprint;
+        long h2 = Long.rotateLeft(fingerprint, 32) | 1;
+        return Math.floorMod(h1 + i * h2, bitCount);
+    }
+}
@@ -0,0 +1,255 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * {@link Downloader} that remembers every downloaded page and keeps its links, once extracted,
+ * in a content-addressed store on disk.
+ * A page whose stored links are confirmed by the {@link Revalidator} is served without touching the wrapped downloader;
+ * a page whose links were never extracted is downloaded again.
+ * The index of URLs is LRU-bounded in memory, the store is bounded in bytes;
+ * both evict least recently used pages. The index is saved on {@link #close()} and loaded on creation;
+ * stored files missing from a loaded index, such as after a crash, are deleted.
+ */
+public class ContentCachingDownloader implements Downloader, AutoCloseable {
+    private static final String INDEX_FILE = "index.tsv";
+    // Index hash of a page whose links were not extracted
+    private static final String NO_LINKS = "-";
+
+    private final Downloader downloader;
+    private final Path directory;
+    private final long maxBytes;
+    private final Revalidator revalidator;
+    // Access-ordered, so iteration starts from the least recently used page
+    private final LinkedHashMap<String, Entry> index;
+    private final Map<String, Integer> references = new HashMap<>();
+    private final Map<String, Long> contentSizes = new HashMap<>();
+    private long storedBytes;
+
+    /**
+     * Decides whether a cached page can be used without downloading it again,
+     * for example by a conditional request to the server.
+     */
+    @FunctionalInterface
+    public interface Revalidator {
+        boolean isFresh(String url, Instant storedAt) throws IOException;
+
+        static Revalidator maxAge(Duration maxAge) {
+            return (url, storedAt) -> storedAt.plus(maxAge).isAfter(Instant.now());
+        }
+    }
+
+    public ContentCachingDownloader(final Downloader downloader, final Path directory,
+                                    final int maxEntries, final long maxBytes,
+                                    final Revalidator revalidator) throws IOException {
+        this.downloader = downloader;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.revalidator = revalidator;
+        this.index = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    release(eldest.getValue().hash);
+                    return true;
+                }
+                return false;
+            }
+        };
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    @Override
+    public Document download(final String url) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(url);
+        }
+        // Without stored links the page is downloaded here, under the caller's download limits, not in extractLinks()
+        if (entry != null && entry.hash != null && revalidator.isFresh(url, entry.storedAt)) {
+            try {
+                List<String> links = read(entry.hash);
+                return () -> links;
+            } catch (NoSuchFileException ignored) {
+                // Evicted concurrently, download again
+            }
+        }
+        Document document = downloader.download(url);
+        Instant downloadedAt = Instant.now();
+        synchronized (this) {
+            Entry previous = index.put(url, new Entry(null, downloadedAt));
+            if (previous != null) {
+                release(previous.hash);
+            }
+        }
+        return () -> extractAndStore(url, document, downloadedAt);
+    }
+
+    private List<String> extractAndStore(final String url, final Document document, final Instant downloadedAt)
+            throws IOException {
+        List<String> links = document.extractLinks();
+        store(url, downloadedAt, links);
+        return links;
+    }
+
+    private void store(final String url, final Instant storedAt, final List<String> links) throws IOException {
+        byte[] content = String.join("\n", links).getBytes(StandardCharsets.UTF_8);
+        String hash = hash(content);
+        Path file = contentPath(hash);
+        synchronized (this) {
+            if (!contentSizes.containsKey(hash)) {
+                Files.createDirectories(file.getParent());
+                Files.write(file, content);
+                contentSizes.put(hash, (long) content.length);
+                storedBytes += content.length;
+            }
+            references.merge(hash, 1, Integer::sum);
+            Entry previous = index.put(url, new Entry(hash, storedAt));
+            if (previous != null) {
+                release(previous.hash);
+            }
+            evictToSize();
+        }
+    }
+
+    private List<String> read(final String hash) throws IOException {
+        String content = Files.readString(contentPath(hash), StandardCharsets.UTF_8);
+        return content.isEmpty() ? List.of() : List.of(content.split("\n"));
+    }
+
+    // Called with the monitor held
+    private void evictToSize() {
+        Iterator<Entry> iterator = index.values().iterator();
+        while (storedBytes > maxBytes && iterator.hasNext()) {
+            String hash = iterator.next().hash;
+            if (hash != null) {
+                iterator.remove();
+                release(hash);
+            }
+        }
+    }
+
+    // Called with the monitor held
+    private void release(final String hash) {
+        if (hash == null || references.merge(hash, -1, Integer::sum) > 0) {
+            return;
+        }
+        references.remove(hash);
+        Long size = contentSizes.remove(hash);
+        if (size != null) {
+            storedBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(contentPath(hash));
+        } catch (IOException e) {
+            System.err.println("Unable to delete cached page " + hash + ": " + e.getMessage());
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    loadEntry(line);
+                }
+            }
+        }
+        deleteUnreferenced();
+        evictToSize();
+    }
+
+    // Corrupt lines are skipped, their pages are downloaded again
+    private void loadEntry(final String line) throws IOException {
+        String[] parts = line.split("\t");
+        if (parts.length != 3) {
+            return;
+        }
+        Instant storedAt;
+        try {
+            storedAt = Instant.ofEpochMilli(Long.parseLong(parts[2]));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String hash = parts[1].equals(NO_LINKS) ? null : parts[1];
+        if (hash != null) {
+            if (!isHash(hash) || !Files.exists(contentPath(hash))) {
+                return;
+            }
+            if (!contentSizes.containsKey(hash)) {
+                long size = Files.size(contentPath(hash));
+                contentSizes.put(hash, size);
+                storedBytes += size;
+            }
+            references.merge(hash, 1, Integer::sum);
+        }
+        Entry previous = index.put(parts[0], new Entry(hash, storedAt));
+        if (previous != null) {
+            release(previous.hash);
+        }
+    }
+
+    // Files stored after the index was last saved are outside the byte count and would never be evicted
+    private void deleteUnreferenced() throws IOException {
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path bucket : buckets) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(bucket)) {
+                    for (Path file : files) {
+                        if (!contentSizes.containsKey(file.getFileName().toString())) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isHash(final String hash) {
+        return hash.length() == 64 && hash.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // Least recently used first, so the access order survives a reload
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                String hash = entry.getValue().hash == null ? NO_LINKS : entry.getValue().hash;
+                writer.write(entry.getKey() + "\t" + hash + "\t" + entry.getValue().storedAt.toEpochMilli());
+                writer.newLine();
+            }
+        }
+    }
+
+    private Path contentPath(final String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String hash(final byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required to be supported", e);
+        }
+    }
+
+    // Null hash for a page whose links were not extracted
+    private record Entry(String hash, Instant storedAt) {
+    }
+}
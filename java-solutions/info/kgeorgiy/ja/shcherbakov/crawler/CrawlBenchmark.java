@@ -0,0 +1,185 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Crawl benchmark of {@link WebCrawler} over a simulated web graph, without the network.
+ * The graph, every page latency and every failure are derived from the seed, so runs are reproducible.
+ * Prints one CSV row per (downloaders, extractors, perHost, mode) with median time to completion and pages/s.
+ */
+public class CrawlBenchmark {
+    private static final int[] DOWNLOADERS = {4, 16, 64};
+    private static final int[] EXTRACTORS = {1, 4};
+    private static final int[] PER_HOST = {1, 4, 16};
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int MEASURE_ITERATIONS = 3;
+    private static final String USAGE =
+            "CrawlBenchmark [pages [hosts [depth [seed [fanOut [failureRate [medianLatencyMicros [extractMicros"
+                    + " [latencySigma [slowHostShare [slowHostFactor]]]]]]]]]]]";
+
+    public static void main(String[] args) {
+        if (args.length > 11) {
+            System.err.println(USAGE);
+            return;
+        }
+        SimulatedWeb web;
+        int depth;
+        try {
+            int pages = Integer.parseInt(getOrDefault(args, 0, "5000"));
+            int hosts = Integer.parseInt(getOrDefault(args, 1, "50"));
+            depth = Integer.parseInt(getOrDefault(args, 2, "4"));
+            long seed = Long.parseLong(getOrDefault(args, 3, "42"));
+            int fanOut = Integer.parseInt(getOrDefault(args, 4, "8"));
+            double failureRate = Double.parseDouble(getOrDefault(args, 5, "0.02"));
+            long medianMicros = Long.parseLong(getOrDefault(args, 6, "2000"));
+            long extractMicros = Long.parseLong(getOrDefault(args, 7, "20"));
+            double sigma = Double.parseDouble(getOrDefault(args, 8, "0.5"));
+            double slowHostShare = Double.parseDouble(getOrDefault(args, 9, "0.1"));
+            double slowHostFactor = Double.parseDouble(getOrDefault(args, 10, "10"));
+            Latencies latencies = new Latencies(TimeUnit.MICROSECONDS.toNanos(medianMicros), sigma,
+                    slowHostShare, slowHostFactor);
+            web = new SimulatedWeb(seed, pages, hosts, fanOut, failureRate, latencies,
+                    TimeUnit.MICROSECONDS.toNanos(extractMicros));
+        } catch (NumberFormatException e) {
+            System.err.println("Arguments must be numbers: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+        Map<String, Supplier<CrawlerOptions>> modes = new LinkedHashMap<>();
+        modes.put("plain", CrawlerOptions::new);
+        modes.put("adaptive", () -> new CrawlerOptions().adaptivePerHost(true));
+        modes.put("virtualThreads", () -> new CrawlerOptions().virtualThreads(true));
+        modes.put("priority", () -> new CrawlerOptions().priority(UrlScorer::hostDiversity));
+
+        System.out.println("downloaders,extractors,perHost,mode,pages,medianNanos,pagesPerSecond");
+        for (int downloaders : DOWNLOADERS) {
+            for (int extractors : EXTRACTORS) {
+                for (int perHost : PER_HOST) {
+                    if (perHost > downloaders) {
+                        continue;
+                    }
+                    for (Map.Entry<String, Supplier<CrawlerOptions>> mode : modes.entrySet()) {
+                        run(web, depth, downloaders, extractors, perHost, mode.getKey(), mode.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static String getOrDefault(String[] args, int i, String defaultValue) {
+        return args.length <= i ? defaultValue : args[i];
+    }
+
+    private static void run(SimulatedWeb web, int depth, int downloaders, int extractors, int perHost,
+                            String mode, Supplier<CrawlerOptions> options) {
+        int crawled = 0;
+        long[] times = new long[MEASURE_ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < MEASURE_ITERATIONS; i++) {
+            try (WebCrawler crawler = new WebCrawler(web, downloaders, extractors, perHost, options.get())) {
+                long start = System.nanoTime();
+                Result result = crawler.download(web.url(0), depth);
+                long elapsed = System.nanoTime() - start;
+                crawled = result.getDownloaded().size() + result.getErrors().size();
+                if (i >= 0) {
+                    times[i] = elapsed;
+                }
+            }
+        }
+        Arrays.sort(times);
+        long median = times[MEASURE_ITERATIONS / 2];
+        System.out.printf(Locale.ROOT, "%d,%d,%d,%s,%d,%d,%.1f%n",
+                downloaders, extractors, perHost, mode, crawled, median, crawled * 1e9 / median);
+    }
+
+    /**
+     * Log-normal download latencies: a host's median is {@code medianNanos} times a factor between 0.5 and 1.5,
+     * or {@code slowHostFactor} for a {@code slowHostShare} of hosts; pages spread around it with {@code sigma}.
+     */
+    record Latencies(long medianNanos, double sigma, double slowHostShare, double slowHostFactor) {
+    }
+
+    /**
+     * Random web graph served from memory. Page {@code i} lives on host {@code i % hosts}; hosts get
+     * log-normal latencies around their own median, some of them much slower than the rest.
+     */
+    static class SimulatedWeb implements Downloader {
+        private final long seed;
+        private final int hosts;
+        private final double failureRate;
+        private final long extractNanos;
+        private final int[][] links;
+        private final long[] hostMedianNanos;
+        private final double sigma;
+
+        /**
+         * Creates graph of {@code pages} pages with on average {@code fanOut} links per page,
+         * {@code failureRate} of downloads failing, download latency following {@code latencies}
+         * and {@code extractNanos} of CPU work per extraction.
+         */
+        SimulatedWeb(long seed, int pages, int hosts, int fanOut, double failureRate,
+                     Latencies latencies, long extractNanos) {
+            this.seed = seed;
+            this.hosts = hosts;
+            this.failureRate = failureRate;
+            this.extractNanos = extractNanos;
+            this.sigma = latencies.sigma();
+            Random random = new Random(seed);
+            hostMedianNanos = new long[hosts];
+            for (int i = 0; i < hosts; i++) {
+                double factor = random.nextDouble() < latencies.slowHostShare()
+                        ? latencies.slowHostFactor()
+                        : 0.5 + random.nextDouble();
+                hostMedianNanos[i] = (long) (latencies.medianNanos() * factor);
+            }
+            links = new int[pages][];
+            for (int i = 0; i < pages; i++) {
+                // Geometric fan-out with the given mean, links biased towards low page numbers as popular pages
+                int count = (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - 1.0 / (fanOut + 1)));
+                links[i] = new int[count];
+                for (int j = 0; j < count; j++) {
+                    double x = random.nextDouble();
+                    links[i][j] = (int) (x * x * pages);
+                }
+            }
+        }
+
+        String url(int page) {
+            return "http://h" + page % hosts + ".example/p" + page;
+        }
+
+        @Override
+        public Document download(String url) throws IOException {
+            int page = Integer.parseInt(url.substring(url.lastIndexOf("/p") + 2));
+            // Latency and failure depend only on the page, not on the order of downloads
+            Random random = new Random(seed * 31 + page);
+            long latency = (long) (hostMedianNanos[page % hosts] * Math.exp(random.nextGaussian() * sigma));
+            try {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            if (random.nextDouble() < failureRate) {
+                throw new IOException("Simulated failure of " + url);
+            }
+            return () -> {
+                long end = System.nanoTime() + extractNanos;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                List<String> result = new ArrayList<>(links[page].length);
+                for (int link : links[page]) {
+                    result.add(url(link));
+                }
+                return result;
+            };
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+
+import java.io.IOException;
+
+/**
+ * Outcome of one page of a streamed crawl: either the downloaded {@code document} or the {@code error}.
+ */
+public record CrawlEvent(String url, Document document, IOException error) {
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
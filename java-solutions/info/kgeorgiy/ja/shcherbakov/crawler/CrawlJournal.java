@@ -0,0 +1,225 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only log of a crawl: scheduled URLs with depth, downloads, errors and finished extractions.
+ * One tab-separated record per line. Records are flushed in batches and on close, so a crash loses
+ * the records since the last flush; as they are appended in crawl order, a resumed crawl only redoes that work.
+ * The log is also the crawl frontier: scheduled URLs are read back from it depth by depth,
+ * so queued pages take disk space rather than memory.
+ */
+class CrawlJournal implements Closeable {
+    private static final String SCHEDULED = "S";
+    private static final String DOWNLOADED = "D";
+    private static final String FAILED = "E";
+    private static final String EXTRACTED = "X";
+    private static final int FLUSH_EVERY = 256;
+
+    private final Path file;
+    private final BufferedWriter writer;
+    private final Map<Integer, ScheduledReader> readers = new HashMap<>();
+    private int unflushed;
+
+    /**
+     * Receives records of the log in order.
+     */
+    interface Records {
+        default void scheduled(String url, int depth) {
+        }
+
+        default void downloaded(String url) {
+        }
+
+        default void failed(String url, String message) {
+        }
+
+        default void extracted(String url, int depth) {
+        }
+    }
+
+    CrawlJournal(final Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // Streams rather than channels: close() of the crawler interrupts threads that log, and that would close a channel
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file.toFile(), true), StandardCharsets.UTF_8));
+        // A record torn by a crash must not swallow the next one
+        if (Files.size(file) > 0 && !endsWithNewLine()) {
+            writer.newLine();
+            unflushed++;
+        }
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+            input.seek(input.length() - 1);
+            return input.read() == '\n';
+        }
+    }
+
+    /**
+     * Passes every record logged so far to {@code records}. Torn records are skipped.
+     */
+    void replay(final Records records) throws IOException {
+        flush();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length < 2) {
+                    continue;
+                }
+                String url = parts[1];
+                try {
+                    switch (parts[0]) {
+                        case SCHEDULED -> records.scheduled(url, Integer.parseInt(parts[2]));
+                        case EXTRACTED -> records.extracted(url, Integer.parseInt(parts[2]));
+                        case DOWNLOADED -> records.downloaded(url);
+                        case FAILED -> records.failed(url, parts.length > 2 ? parts[2] : "");
+                        default -> {
+                        }
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException ignored) {
+                    // Torn record
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the URL of the next record scheduling a URL with {@code depth}, following records appended since
+     * the previous call, or {@code null} if there is none yet. Every depth is read from the start of the log once.
+     * Not thread-safe.
+     */
+    String nextScheduled(final int depth) throws IOException {
+        ScheduledReader reader = readers.get(depth);
+        if (reader == null) {
+            reader = new ScheduledReader(new RandomAccessFile(file.toFile(), "r"), depth);
+            readers.put(depth, reader);
+        }
+        String url = reader.next();
+        if (url == null && flush()) {
+            url = reader.next();
+        }
+        return url;
+    }
+
+    void scheduled(final String url, final int depth) {
+        append(SCHEDULED, url, Integer.toString(depth));
+    }
+
+    void downloaded(final String url) {
+        append(DOWNLOADED, url, null);
+    }
+
+    void failed(final String url, final IOException e) {
+        append(FAILED, url, String.valueOf(e.getMessage()).replaceAll("[\t\r\n]", " "));
+    }
+
+    void extracted(final String url, final int depth) {
+        append(EXTRACTED, url, Integer.toString(depth));
+    }
+
+    private synchronized void append(final String type, final String url, final String value) {
+        try {
+            writer.write(type);
+            writer.write('\t');
+            writer.write(url);
+            if (value != null) {
+                writer.write('\t');
+                writer.write(value);
+            }
+            writer.newLine();
+            if (++unflushed >= FLUSH_EVERY) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write crawl journal: " + e.getMessage());
+        }
+    }
+
+    // Returns whether there was anything to flush
+    private synchronized boolean flush() throws IOException {
+        if (unflushed == 0) {
+            return false;
+        }
+        writer.flush();
+        unflushed = 0;
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (ScheduledReader reader : readers.values()) {
+                reader.input.close();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Reads whole lines only: the writer may have flushed a part of the last one
+    private static class ScheduledReader {
+        private final RandomAccessFile input;
+        private final String prefix;
+        private final String suffix;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).flip();
+
+        ScheduledReader(final RandomAccessFile input, final int depth) {
+            this.input = input;
+            this.prefix = SCHEDULED + "\t";
+            this.suffix = "\t" + depth;
+        }
+
+        String next() throws IOException {
+            String line;
+            while ((line = nextLine()) != null) {
+                if (line.startsWith(prefix) && line.endsWith(suffix) && line.length() > prefix.length() + suffix.length()) {
+                    return line.substring(prefix.length(), line.length() - suffix.length());
+                }
+            }
+            return null;
+        }
+
+        private String nextLine() throws IOException {
+            while (true) {
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        int length = i - buffer.position();
+                        String line = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+                        buffer.position(i + 1);
+                        return line.endsWith("\r") ? line.substring(0, length - 1) : line;
+                    }
+                }
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+                int read = input.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read > 0) {
+                    buffer.position(buffer.position() + read);
+                }
+                buffer.flip();
+                if (read <= 0) {
+                    return null;
+                }
+            }
+        }
+    }
+}
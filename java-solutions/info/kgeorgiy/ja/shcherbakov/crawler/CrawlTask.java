@@ -0,0 +1,32 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.Comparator;
+
+/**
+ * Task with a callback to run instead of it when it is rejected or dropped by an executor shutdown,
+ * so whoever waits for the task is still notified. Tasks with greater priority are dispatched first
+ * by priority-aware queues.
+ */
+record CrawlTask(Runnable task, Runnable onCancel, double priority) implements Runnable {
+    static final Comparator<Runnable> HIGHEST_PRIORITY_FIRST =
+            Comparator.comparingDouble(runnable -> -priority(runnable));
+
+    CrawlTask(final Runnable task, final Runnable onCancel) {
+        this(task, onCancel, 0);
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+
+    static void cancel(final Runnable runnable) {
+        if (runnable instanceof CrawlTask crawlTask) {
+            crawlTask.onCancel.run();
+        }
+    }
+
+    static double priority(final Runnable runnable) {
+        return runnable instanceof CrawlTask crawlTask ? crawlTask.priority : 0;
+    }
+}
@@ -0,0 +1,142 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import info.kgeorgiy.ja.shcherbakov.concurrent.LatencyHistogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters of {@link WebCrawler}, shared by all its crawls.
+ * Recording only touches striped counters, so download and extraction threads do not contend on it.
+ */
+public class CrawlerMetrics implements CrawlerMetricsMBean {
+    private final long startNanos = System.nanoTime();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder links = new LongAdder();
+    private final LatencyHistogram downloadTime = new LatencyHistogram();
+    private final LatencyHistogram extractTime = new LatencyHistogram();
+    private final ConcurrentMap<String, LongAdder> errorsByType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> frontier = new ConcurrentHashMap<>();
+
+    CrawlerMetrics() {
+    }
+
+    void downloaded(final long nanos) {
+        pages.increment();
+        downloadTime.record(nanos);
+    }
+
+    void failed(final Exception e, final long nanos) {
+        errors.increment();
+        downloadTime.record(nanos);
+        errorsByType.computeIfAbsent(e.getClass().getName(), type -> new LongAdder()).increment();
+    }
+
+    void extracted(final int count, final long nanos) {
+        links.add(count);
+        extractTime.record(nanos);
+    }
+
+    void queued(final int depth) {
+        frontier.computeIfAbsent(depth, d -> new LongAdder()).increment();
+    }
+
+    void dequeued(final int depth) {
+        frontier.get(depth).decrement();
+    }
+
+    @Override
+    public long getPages() {
+        return pages.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getPagesPerSecond() {
+        return perSecond(pages.sum());
+    }
+
+    @Override
+    public double getLinksPerSecond() {
+        return perSecond(links.sum());
+    }
+
+    @Override
+    public double getErrorRate() {
+        long failed = errors.sum();
+        long total = failed + pages.sum();
+        return total == 0 ? 0 : (double) failed / total;
+    }
+
+    @Override
+    public double getMeanDownloadNanos() {
+        return downloadTime.getMean();
+    }
+
+    @Override
+    public long getDownloadNanosP99() {
+        return downloadTime.getPercentile(0.99);
+    }
+
+    @Override
+    public double getMeanExtractNanos() {
+        return extractTime.getMean();
+    }
+
+    @Override
+    public long getExtractNanosP99() {
+        return extractTime.getPercentile(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByType() {
+        return sums(errorsByType);
+    }
+
+    @Override
+    public Map<Integer, Long> getFrontierByDepth() {
+        return sums(frontier);
+    }
+
+    public LatencyHistogram getDownloadTime() {
+        return downloadTime;
+    }
+
+    public LatencyHistogram getExtractTime() {
+        return extractTime;
+    }
+
+    private double perSecond(final long count) {
+        return count * 1e9 / Math.max(1, System.nanoTime() - startNanos);
+    }
+
+    private static <K> Map<K, Long> sums(final Map<K, LongAdder> counters) {
+        Map<K, Long> result = new TreeMap<>();
+        counters.forEach((key, counter) -> result.put(key, counter.sum()));
+        return result;
+    }
+
+    Snapshot snapshot(final List<HostStatistics> hosts) {
+        return new Snapshot(getPages(), getErrors(), getPagesPerSecond(), getLinksPerSecond(),
+                downloadTime.getBuckets(), extractTime.getBuckets(),
+                getErrorsByType(), getFrontierByDepth(), hosts);
+    }
+
+    /**
+     * Point-in-time copy of the counters. Histogram buckets follow {@link LatencyHistogram} layout.
+     */
+    public record Snapshot(long pages, long errors, double pagesPerSecond, double linksPerSecond,
+                           long[] downloadNanosHistogram, long[] extractNanosHistogram,
+                           Map<String, Long> errorsByType, Map<Integer, Long> frontierByDepth,
+                           List<HostStatistics> hosts) {
+    }
+}
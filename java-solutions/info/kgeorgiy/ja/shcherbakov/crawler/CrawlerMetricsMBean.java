@@ -0,0 +1,41 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link WebCrawler} throughput.
+ */
+public interface CrawlerMetricsMBean {
+    /** Returns number of successfully downloaded pages. */
+    long getPages();
+
+    /** Returns number of failed downloads. */
+    long getErrors();
+
+    /** Returns downloaded pages per second since start. */
+    double getPagesPerSecond();
+
+    /** Returns extracted links per second since start. */
+    double getLinksPerSecond();
+
+    /** Returns share of failed downloads. */
+    double getErrorRate();
+
+    /** Returns mean download time in nanoseconds. */
+    double getMeanDownloadNanos();
+
+    /** Returns 99th percentile upper bound of download time in nanoseconds. */
+    long getDownloadNanosP99();
+
+    /** Returns mean link extraction time in nanoseconds. */
+    double getMeanExtractNanos();
+
+    /** Returns 99th percentile upper bound of link extraction time in nanoseconds. */
+    long getExtractNanosP99();
+
+    /** Returns number of failed downloads by exception class. */
+    Map<String, Long> getErrorsByType();
+
+    /** Returns number of queued and running downloads by remaining depth. */
+    Map<Integer, Long> getFrontierByDepth();
+}
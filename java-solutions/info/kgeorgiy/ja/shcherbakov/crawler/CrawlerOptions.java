@@ -0,0 +1,92 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Optional {@link WebCrawler} modes. Defaults give the plain crawler.
+ */
+public class CrawlerOptions {
+    private Supplier<VisitedSet> visitedSets = VisitedSet::concurrentMap;
+    private boolean adaptivePerHost;
+    private boolean virtualThreads;
+    private Supplier<UrlScorer> scorers;
+    private long pageBudget = Long.MAX_VALUE;
+    private Duration timeBudget;
+
+    /**
+     * Sets factory of visited-URL sets, one per crawl,
+     * for example {@code () -> VisitedSet.bloomFilter(100_000_000, 1e-6)} for very large crawls.
+     */
+    public CrawlerOptions visitedSets(final Supplier<VisitedSet> visitedSets) {
+        this.visitedSets = visitedSets;
+        return this;
+    }
+
+    /**
+     * Enables per-host AIMD concurrency: a host starts with one download and gains slots on fast successes
+     * up to {@code perHost}, losing half of them on an error or a latency spike.
+     */
+    public CrawlerOptions adaptivePerHost(final boolean adaptivePerHost) {
+        this.adaptivePerHost = adaptivePerHost;
+        return this;
+    }
+
+    /**
+     * Runs every download on its own virtual thread, with at most {@code downloaders} downloads at once.
+     * Falls back to platform threads on a runtime without virtual threads. Extraction always uses a fixed pool.
+     */
+    public CrawlerOptions virtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Downloads pages in order of scores given by a scorer made by {@code scorers} for every crawl,
+     * instead of roughly breadth-first. The depth limit still applies.
+     */
+    public CrawlerOptions priority(final Supplier<UrlScorer> scorers) {
+        this.scorers = scorers;
+        return this;
+    }
+
+    /**
+     * Limits every crawl to {@code pages} download attempts; the rest of the frontier is dropped.
+     */
+    public CrawlerOptions pageBudget(final long pages) {
+        this.pageBudget = pages;
+        return this;
+    }
+
+    /**
+     * Stops starting new downloads of a crawl once {@code time} has passed since it started.
+     */
+    public CrawlerOptions timeBudget(final Duration time) {
+        this.timeBudget = time;
+        return this;
+    }
+
+    Supplier<VisitedSet> visitedSets() {
+        return visitedSets;
+    }
+
+    boolean adaptivePerHost() {
+        return adaptivePerHost;
+    }
+
+    boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    Supplier<UrlScorer> scorers() {
+        return scorers;
+    }
+
+    long pageBudget() {
+        return pageBudget;
+    }
+
+    Duration timeBudget() {
+        return timeBudget;
+    }
+}
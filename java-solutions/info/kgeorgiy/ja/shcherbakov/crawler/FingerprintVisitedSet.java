@@ -0,0 +1,156 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Linear probing table in direct buffers. Slot is two longs: fingerprint ({@code 0} for empty) and depth.
+ * Slots are claimed by CAS under the read lock; the write lock is only taken to grow the table.
+ * A buffer is limited to 2 GiB, so large tables are split into segments of {@code 2^26} slots.
+ * Every insertion first reserves room under the load limit, so the table always keeps empty slots and probes end.
+ */
+class FingerprintVisitedSet implements VisitedSet {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int SLOT_BYTES = 2 * Long.BYTES;
+    private static final double MAX_LOAD = 0.7;
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long MAX_CAPACITY = 1L << 40;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong size = new AtomicLong();
+    private ByteBuffer[] segments;
+    private long mask;
+    private long threshold;
+
+    FingerprintVisitedSet(final int expectedUrls) {
+        long needed = (long) Math.ceil(expectedUrls / MAX_LOAD) + 1;
+        allocate(Math.max(16, Long.highestOneBit(needed - 1) << 1));
+    }
+
+    private void allocate(final long capacity) {
+        int segmentSlots = (int) Math.min(capacity, 1L << SEGMENT_SHIFT);
+        segments = new ByteBuffer[(int) (capacity / segmentSlots)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSlots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        }
+        mask = capacity - 1;
+        threshold = (long) (capacity * MAX_LOAD);
+    }
+
+    private ByteBuffer segment(final long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(final long slot) {
+        return (int) (slot & SEGMENT_MASK) * SLOT_BYTES;
+    }
+
+    @Override
+    public int visit(final String url, final int depth) {
+        long fingerprint = nonZero(VisitedSet.fingerprint(url));
+        while (true) {
+            lock.readLock().lock();
+            try {
+                for (long slot = fingerprint & mask; ; slot = (slot + 1) & mask) {
+                    ByteBuffer segment = segment(slot);
+                    int offset = offset(slot);
+                    long current = (long) LONGS.getVolatile(segment, offset);
+                    if (current == 0) {
+                        if (size.incrementAndGet() > threshold) {
+                            size.decrementAndGet();
+                            break;
+                        }
+                        if (LONGS.compareAndSet(segment, offset, 0L, fingerprint)) {
+                            LONGS.setVolatile(segment, offset + Long.BYTES, (long) depth);
+                            return 0;
+                        }
+                        size.decrementAndGet();
+                        current = (long) LONGS.getVolatile(segment, offset);
+                    }
+                    if (current == fingerprint) {
+                        return raiseDepth(segment, offset + Long.BYTES, depth);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            // No room left under the load limit: grow and probe the new table
+            grow();
+        }
+    }
+
+    private static int raiseDepth(final ByteBuffer segment, final int offset, final int depth) {
+        while (true) {
+            long known = (long) LONGS.getVolatile(segment, offset);
+            if (known == 0) {
+                // Claimed by another thread that has not stored the depth yet
+                Thread.onSpinWait();
+                continue;
+            }
+            if (known >= depth || LONGS.compareAndSet(segment, offset, known, (long) depth)) {
+                return (int) known;
+            }
+        }
+    }
+
+    @Override
+    public int depth(final String url) {
+        long fingerprint = nonZero(VisitedSet.fingerprint(url));
+        lock.readLock().lock();
+        try {
+            for (long slot = fingerprint & mask; ; slot = (slot + 1) & mask) {
+                ByteBuffer segment = segment(slot);
+                int offset = offset(slot);
+                long current = (long) LONGS.getVolatile(segment, offset);
+                if (current == 0) {
+                    return 0;
+                }
+                if (current == fingerprint) {
+                    return (int) (long) LONGS.getVolatile(segment, offset + Long.BYTES);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void grow() {
+        lock.writeLock().lock();
+        try {
+            if (size.get() < threshold) {
+                // Grown by another thread meanwhile
+                return;
+            }
+            long oldCapacity = mask + 1;
+            if (oldCapacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("Visited set is full: " + size.get() + " URLs");
+            }
+            ByteBuffer[] old = segments;
+            allocate(oldCapacity * 2);
+            for (long i = 0; i < oldCapacity; i++) {
+                ByteBuffer oldSegment = old[(int) (i >>> SEGMENT_SHIFT)];
+                long fingerprint = oldSegment.getLong(offset(i));
+                if (fingerprint != 0) {
+                    long slot = fingerprint & mask;
+                    while (segment(slot).getLong(offset(slot)) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    segment(slot).putLong(offset(slot), fingerprint);
+                    segment(slot).putLong(offset(slot) + Long.BYTES, oldSegment.getLong(offset(i) + Long.BYTES));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static long nonZero(final long fingerprint) {
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+}
@@ -0,0 +1,54 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Allowed hosts compiled into hash sets. A pattern is either an exact host
+ * or {@code *.domain}, matching every subdomain of {@code domain} (but not the domain itself);
+ * a lone {@code *} allows everything. A lookup costs one hash probe per label of the host.
+ */
+class HostFilter {
+    private static final HostFilter ALL = new HostFilter(null);
+
+    private final Set<String> exact = new HashSet<>();
+    private final Set<String> domains = new HashSet<>();
+    private final boolean any;
+
+    private HostFilter(final List<String> patterns) {
+        boolean anyHost = patterns == null;
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern.equals("*")) {
+                    anyHost = true;
+                } else if (pattern.startsWith("*.")) {
+                    domains.add(pattern.substring(2));
+                } else {
+                    exact.add(pattern);
+                }
+            }
+        }
+        any = anyHost;
+    }
+
+    /** Returns filter for the given patterns, allowing every host for {@code null}. */
+    static HostFilter of(final List<String> patterns) {
+        return patterns == null ? ALL : new HostFilter(patterns);
+    }
+
+    boolean allows(final String host) {
+        if (any || exact.contains(host)) {
+            return true;
+        }
+        if (domains.isEmpty()) {
+            return false;
+        }
+        for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+            if (domains.contains(host.substring(dot + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
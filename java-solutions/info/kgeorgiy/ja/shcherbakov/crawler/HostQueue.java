@@ -0,0 +1,182 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Queue of downloads for one host, highest priority first and FIFO among equal priorities.
+ * A task is handed to the executor only when the host has a free slot,
+ * so executor threads never block waiting for a host. Also used as a global limit in front of an unbounded executor.
+ * In adaptive mode the number of slots follows AIMD: slow start and then one slot per window of fast
+ * successes, halved on an error or a download much slower than usual, never above the configured limit.
+ */
+class HostQueue implements Executor {
+    // Download slower than this many smoothed latencies is a spike
+    private static final double SPIKE_FACTOR = 3;
+    // Weight of a new sample in the smoothed latency
+    private static final double LATENCY_GAIN = 0.125;
+
+    private final Executor executor;
+    private final int limit;
+    private final boolean adaptive;
+    private final Queue<Waiting> waiting = new PriorityQueue<>(
+            Comparator.comparing(Waiting::task, CrawlTask.HIGHEST_PRIORITY_FIRST).thenComparingLong(Waiting::sequence));
+    private long sequence;
+    private int running;
+
+    private double window;
+    private double slowStartThreshold;
+    // System.nanoTime() has an arbitrary origin, so "never" cannot be encoded as a time
+    private boolean decreased;
+    private long lastDecrease;
+    private double smoothedLatency;
+    private long successes;
+    private long failures;
+
+    HostQueue(final Executor executor, final int limit, final boolean adaptive) {
+        this.executor = executor;
+        this.limit = limit;
+        this.adaptive = adaptive;
+        this.window = adaptive ? 1 : limit;
+        this.slowStartThreshold = limit;
+    }
+
+    /**
+     * Queues {@code task} with {@code priority}; {@code onCancel} is run instead of it if the executor refuses or drops the task.
+     */
+    void add(final Runnable task, final Runnable onCancel, final double priority) {
+        CrawlTask job = new CrawlTask(task, onCancel, priority);
+        synchronized (this) {
+            if (running >= slots()) {
+                waiting.add(new Waiting(job, sequence++));
+                return;
+            }
+            running++;
+        }
+        dispatch(job);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command instanceof CrawlTask crawlTask) {
+            add(crawlTask.task(), crawlTask.onCancel(), crawlTask.priority());
+        } else {
+            add(command, () -> {}, 0);
+        }
+    }
+
+    /**
+     * Records outcome of a download of this host and adjusts slots in adaptive mode.
+     */
+    void report(final long latencyNanos, final boolean failed) {
+        int before;
+        int after;
+        synchronized (this) {
+            before = slots();
+            boolean spike = successes > 0 && latencyNanos > SPIKE_FACTOR * smoothedLatency;
+            if (failed) {
+                failures++;
+            } else {
+                smoothedLatency = successes == 0
+                        ? latencyNanos
+                        : smoothedLatency + LATENCY_GAIN * (latencyNanos - smoothedLatency);
+                successes++;
+            }
+            if (adaptive) {
+                if (failed || spike) {
+                    decrease();
+                } else if (window < slowStartThreshold) {
+                    window = Math.min(limit, window + 1);
+                } else {
+                    window = Math.min(limit, window + 1 / window);
+                }
+            }
+            after = slots();
+        }
+        for (int i = before; i < after; i++) {
+            dispatch(take());
+        }
+    }
+
+    // At most one decrease per smoothed latency, so one burst of errors halves the window once
+    private void decrease() {
+        long now = System.nanoTime();
+        if (decreased && now - lastDecrease < smoothedLatency) {
+            return;
+        }
+        decreased = true;
+        lastDecrease = now;
+        window = Math.max(1, window / 2);
+        slowStartThreshold = window;
+    }
+
+    synchronized HostStatistics statistics(final String host) {
+        return new HostStatistics(host, slots(), running, waiting.size(), (long) smoothedLatency, successes, failures);
+    }
+
+    void cancelAll() {
+        List<Waiting> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        cancelled.forEach(job -> CrawlTask.cancel(job.task));
+    }
+
+    private int slots() {
+        return (int) window;
+    }
+
+    private void dispatch(CrawlTask job) {
+        while (job != null) {
+            final CrawlTask current = job;
+            try {
+                executor.execute(new CrawlTask(() -> {
+                    try {
+                        current.run();
+                    } finally {
+                        dispatch(next());
+                    }
+                }, () -> {
+                    current.onCancel().run();
+                    dispatch(next());
+                }, current.priority()));
+                return;
+            } catch (RejectedExecutionException e) {
+                current.onCancel().run();
+                job = next();
+            }
+        }
+    }
+
+    // Takes the slot of a finished job for the next waiting one, or frees it
+    private synchronized CrawlTask next() {
+        Waiting next = running > slots() ? null : waiting.poll();
+        if (next == null) {
+            running--;
+            return null;
+        }
+        return next.task;
+    }
+
+    // Takes a newly added slot for a waiting job
+    private synchronized CrawlTask take() {
+        if (running >= slots()) {
+            return null;
+        }
+        Waiting next = waiting.poll();
+        if (next == null) {
+            return null;
+        }
+        running++;
+        return next.task;
+    }
+
+    private record Waiting(CrawlTask task, long sequence) {
+    }
+}
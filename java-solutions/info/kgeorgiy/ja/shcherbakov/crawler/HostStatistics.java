@@ -0,0 +1,16 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+/**
+ * Download slots, load and latency of one host.
+ *
+ * @param host           host name
+ * @param slots          current number of concurrent downloads allowed
+ * @param running        downloads in progress
+ * @param queued         downloads waiting for a slot
+ * @param latencyNanos   smoothed latency of successful downloads
+ * @param successes      successful downloads
+ * @param failures       failed downloads
+ */
+public record HostStatistics(String host, int slots, int running, int queued,
+                             long latencyNanos, long successes, long failures) {
+}
@@ -0,0 +1,26 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+class MapVisitedSet implements VisitedSet {
+    private final ConcurrentMap<String, Integer> depths = new ConcurrentHashMap<>();
+
+    @Override
+    public int visit(final String url, final int depth) {
+        while (true) {
+            Integer known = depths.putIfAbsent(url, depth);
+            if (known == null) {
+                return 0;
+            }
+            if (known >= depth || depths.replace(url, known, depth)) {
+                return known;
+            }
+        }
+    }
+
+    @Override
+    public int depth(final String url) {
+        return depths.getOrDefault(url, 0);
+    }
+}
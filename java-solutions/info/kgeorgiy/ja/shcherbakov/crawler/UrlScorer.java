@@ -0,0 +1,74 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Value of downloading a page; pages with greater score are downloaded first.
+ * A scorer serves one crawl and may keep state about it.
+ */
+@FunctionalInterface
+public interface UrlScorer {
+    /**
+     * Scores page {@code url} of {@code host} scheduled with remaining {@code depth}.
+     */
+    double score(String url, String host, int depth);
+
+    /**
+     * Called for every link to an allowed host found during the crawl, including already visited ones,
+     * before the link is scored.
+     */
+    default void linked(final String url, final String host) {
+    }
+
+    /** Prefers pages closer to the start, like breadth-first search. */
+    static UrlScorer byDepth() {
+        return (url, host, depth) -> depth;
+    }
+
+    /** Prefers pages of hosts with fewer pages scheduled so far. */
+    static UrlScorer hostDiversity() {
+        ConcurrentMap<String, LongAdder> scheduled = new ConcurrentHashMap<>();
+        return (url, host, depth) -> {
+            LongAdder count = scheduled.computeIfAbsent(host, h -> new LongAdder());
+            count.increment();
+            return -count.sum();
+        };
+    }
+
+    /** Prefers pages of hosts linked to most often so far. */
+    static UrlScorer linkPopularity() {
+        ConcurrentMap<String, LongAdder> links = new ConcurrentHashMap<>();
+        return new UrlScorer() {
+            @Override
+            public double score(final String url, final String host, final int depth) {
+                LongAdder count = links.get(host);
+                return count == null ? 0 : count.sum();
+            }
+
+            @Override
+            public void linked(final String url, final String host) {
+                links.computeIfAbsent(host, h -> new LongAdder()).increment();
+            }
+        };
+    }
+
+    /** Orders by the whole part of this score, breaking ties by {@code other}. */
+    default UrlScorer thenComparing(final UrlScorer other) {
+        // Scores of other are squeezed into (-1, 1), so they only matter between equal scores of this scorer
+        UrlScorer first = this;
+        return new UrlScorer() {
+            @Override
+            public double score(final String url, final String host, final int depth) {
+                return Math.floor(first.score(url, host, depth)) + Math.atan(other.score(url, host, depth)) / Math.PI;
+            }
+
+            @Override
+            public void linked(final String url, final String host) {
+                first.linked(url, host);
+                other.linked(url, host);
+            }
+        };
+    }
+}
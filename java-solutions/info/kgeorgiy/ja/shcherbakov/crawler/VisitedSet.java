@@ -0,0 +1,58 @@
+package info.kgeorgiy.ja.shcherbakov.crawler;
+
+/**
+ * URLs already scheduled by one crawl, with the greatest remaining depth each was scheduled with.
+ */
+public interface VisitedSet {
+    /**
+     * Records that {@code url} is scheduled with remaining {@code depth} (at least {@code 1}).
+     *
+     * @return previous greatest depth, {@code 0} if the URL was not seen before
+     * or a value not less than {@code depth} if the set cannot tell
+     */
+    int visit(String url, int depth);
+
+    /** Returns greatest depth {@code url} was visited with, {@code 0} if it was not visited. */
+    int depth(String url);
+
+    /** Returns whether {@link #visit} reports depth upgrades, so pages may need re-extraction. */
+    default boolean tracksDepth() {
+        return true;
+    }
+
+    /** Exact set on a concurrent hash map of URL strings. */
+    static VisitedSet concurrentMap() {
+        return new MapVisitedSet();
+    }
+
+    /**
+     * Exact set of 64-bit URL fingerprints in an off-heap open-addressing table.
+     * A URL takes a 16-byte slot regardless of its length, and the table is a power of two at most 70% full,
+     * so the real cost is 23 to 46 bytes per URL; distinct URLs collide with probability about {@code 2^-64}.
+     */
+    static VisitedSet fingerprints(int expectedUrls) {
+        return new FingerprintVisitedSet(expectedUrls);
+    }
+
+    /**
+     * Approximate set on a Bloom filter. A false positive makes the crawler skip a URL;
+     * depth upgrades are not tracked.
+     */
+    static VisitedSet bloomFilter(long expectedUrls, double falsePositiveRate) {
+        return new BloomVisitedSet(expectedUrls, falsePositiveRate);
+    }
+
+    /** 64-bit hash of the URL characters. */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash = (hash ^ url.charAt(i)) * 0x100000001b3L;
+        }
+        // FNV-1a followed by a finalizer, so that all bits depend on the whole URL
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -2,12 +2,27 @@ package info.kgeorgiy.ja.shcherbakov.crawler;
 
 import info.kgeorgiy.java.advanced.crawler.*;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class WebCrawler implements AdvancedCrawler {
+    // Queued downloads of a journaled crawl read back into memory at a time
+    private static final int JOURNAL_BATCH = 4096;
 
     public static void main(String[] args) {
         if (args == null || args.length < 1 || args.length > 4) {
@@ -39,85 +54,552 @@ public class WebCrawler implements AdvancedCrawler {
     }
 
     public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost) {
+        this(downloader, downloaders, extractors, perHost, new CrawlerOptions());
+    }
+
+    /**
+     * Creates a crawler that tracks visited URLs of every crawl in a set made by {@code visitedSetFactory}.
+     */
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      Supplier<VisitedSet> visitedSetFactory) {
+        this(downloader, downloaders, extractors, perHost, new CrawlerOptions().visitedSets(visitedSetFactory));
+    }
+
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost, CrawlerOptions options) {
         this.downloader = downloader;
+        this.visitedSetFactory = options.visitedSets();
+        this.adaptivePerHost = options.adaptivePerHost();
         this.hostDownloadsLimit = perHost;
-        downloadService = Executors.newFixedThreadPool(downloaders);
+        this.scorers = options.scorers();
+        this.pageBudget = options.pageBudget();
+        this.timeBudgetNanos = options.timeBudget() == null ? Long.MAX_VALUE : options.timeBudget().toNanos();
+        if (options.virtualThreads()) {
+            downloadService = newVirtualThreadExecutor();
+            downloadLimit = new HostQueue(downloadService, downloaders, false);
+            downloadExecutor = downloadLimit;
+        } else if (scorers != null) {
+            // Hosts with a free slot compete for download threads by priority of their best pages
+            downloadService = new ThreadPoolExecutor(downloaders, downloaders, 0, TimeUnit.MILLISECONDS,
+                    new PriorityBlockingQueue<>(11, CrawlTask.HIGHEST_PRIORITY_FIRST));
+            downloadLimit = null;
+            downloadExecutor = downloadService;
+        } else {
+            downloadService = Executors.newFixedThreadPool(downloaders);
+            downloadLimit = null;
+            downloadExecutor = downloadService;
+        }
         extractService = Executors.newFixedThreadPool(extractors);
     }
 
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively to compile and run on runtimes without virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.err.println("Virtual threads are not available, using platform threads for downloads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
     @Override
     public Result download(String url, int depth) {
         return download(url, depth, null);
     }
 
+    /**
+     * Crawls only pages of {@code hosts}; besides exact hosts, {@code *.domain} allows all subdomains of a domain.
+     */
     @Override
     public Result download(String url, int depth, List<String> hosts) {
-        Set<String> urlQueue = Set.of(url);
-        BreadthDownloader breadthDownloader = new BreadthDownloader();
-        breadthDownloader.run(urlQueue, depth, hosts);
+        BreadthDownloader breadthDownloader = new BreadthDownloader(depth, hosts, null, null, () -> false);
+        breadthDownloader.run(url);
         return breadthDownloader.getResult();
     }
 
+    /**
+     * Crawls like {@link #download(String, int, List)}, passing every page to {@code listener} as soon as it is
+     * downloaded or fails instead of collecting a {@link Result}. The listener is called concurrently from
+     * download threads; while it runs, the calling thread does not download, so a slow listener slows the crawl.
+     */
+    public void download(String url, int depth, List<String> hosts, Consumer<? super CrawlEvent> listener) {
+        new BreadthDownloader(depth, hosts, null, listener, () -> false).run(url);
+    }
+
+    /**
+     * Returns publisher of a crawl started when the first subscriber subscribes.
+     * At most {@code bufferSize} events are buffered per subscriber; when a buffer is full,
+     * download threads wait for the subscriber to request more.
+     * The crawl stops when every subscriber has cancelled or publishing fails.
+     */
+    public Flow.Publisher<CrawlEvent> publish(String url, int depth, List<String> hosts, int bufferSize) {
+        SubmissionPublisher<CrawlEvent> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferSize);
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Consumer<CrawlEvent> listener = event -> {
+            if (cancelled.get()) {
+                return;
+            }
+            try {
+                publisher.submit(event);
+                if (!publisher.hasSubscribers()) {
+                    cancelled.set(true);
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                cancelled.set(true);
+            }
+        };
+        return subscriber -> {
+            publisher.subscribe(subscriber);
+            if (started.compareAndSet(false, true)) {
+                Thread crawl = new Thread(() -> {
+                    try {
+                        new BreadthDownloader(depth, hosts, null, listener, cancelled::get).run(url);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                    if (failure.get() != null) {
+                        publisher.closeExceptionally(failure.get());
+                    } else {
+                        publisher.close();
+                    }
+                }, "WebCrawler-publisher");
+                // Consumers of the publisher keep the application alive, the crawl alone should not
+                crawl.setDaemon(true);
+                crawl.start();
+            }
+        };
+    }
+
+    /**
+     * Crawls like {@link #download(String, int, List)}, logging progress to {@code journal}.
+     * If the journal already exists, the crawl it describes is resumed: logged results are kept
+     * and only unfinished pages are downloaded. The journal must come from a crawl with the same arguments.
+     * Queued pages stay in the journal and only a bounded batch of them is kept in memory,
+     * so the frontier may be larger than the heap.
+     */
+    public Result download(String url, int depth, List<String> hosts, Path journal) throws IOException {
+        try (CrawlJournal crawlJournal = new CrawlJournal(journal)) {
+            BreadthDownloader breadthDownloader = new BreadthDownloader(depth, hosts, crawlJournal, null, () -> false);
+            breadthDownloader.restore();
+            breadthDownloader.run(url);
+            return breadthDownloader.getResult();
+        }
+    }
+
+    // Pipelined BFS: links are scheduled as soon as they are extracted, without a barrier per depth.
+    // A URL reached first by a longer path is upgraded when a shorter one shows up, so the result matches plain BFS.
+    // Only a page with remaining depth r + 2 or more can still reach a URL with depth r + 1, so downloads with depth r
+    // are held until no such page is pending: a download starts with its final depth and every page is downloaded once,
+    // while downloads of neighbouring depths still overlap.
     private class BreadthDownloader {
-        private final ConcurrentMap<String, Boolean> usedUrls = new ConcurrentHashMap<>();
+        private final VisitedSet usedUrls = visitedSetFactory.get();
         private final Set<String> success = ConcurrentHashMap.newKeySet();
         private final ConcurrentMap<String, IOException> errors = new ConcurrentHashMap<>();
+        // Queued and running downloads and extractions, and run() itself until the start URL is scheduled.
+        // Not a Phaser: the frontier may exceed its 65535 parties
+        private final AtomicLong pending = new AtomicLong(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        // Pending downloads and extractions by remaining depth
+        private final AtomicLongArray pendingAt;
+        // Smallest depth whose downloads may start; only decreases, under the lock of held
+        private volatile int open;
+        // Held downloads by URL with the depth they are counted at
+        private final Map<String, Integer> held = new HashMap<>();
+        // Held downloads by depth, including stale entries of URLs upgraded since
+        private final List<List<Held>> heldByDepth = new ArrayList<>();
+        // With a journal, queued downloads are not held in memory but read back from it by feed()
+        private final AtomicInteger fed = new AtomicInteger();
+        private final AtomicBoolean feeding = new AtomicBoolean();
+        private volatile boolean feedRequested;
+        // Greatest depth with which links of a page were scheduled before a resume
+        private final Map<String, Integer> extracted = new HashMap<>();
+        private final int depth;
+        private final HostFilter hostFilter;
+        private final CrawlJournal journal;
+        // Receives pages instead of success and errors when set
+        private final Consumer<? super CrawlEvent> listener;
+        // Null for roughly breadth-first order
+        private final UrlScorer scorer = scorers == null ? null : scorers.get();
+        private final AtomicLong pagesLeft = new AtomicLong(pageBudget);
+        private final long deadline = System.nanoTime() + Math.min(timeBudgetNanos, Long.MAX_VALUE / 2);
+        // Once true, nothing new is scheduled and queued downloads finish without downloading
+        private final BooleanSupplier cancelled;
 
-        private void run(final Set<String> urlQueue, final int depth, final List<String> hosts) {
-            Set<String> extracted = ConcurrentHashMap.newKeySet();
-            Phaser phaser = new Phaser(1);
-            for (String url : urlQueue) {
-                usedUrls.put(url, true);
-                phaser.register();
-                downloadService.execute(() -> {
-                    Document document = downloadDocument(url, hosts);
-                    if (document != null && depth > 1) {
-                        phaser.register();
-                        extractService.submit(() -> {
-                            extractLinks(extracted, document);
-                            phaser.arrive();
-                        });
-                    }
-                    phaser.arrive();
-                });
+        private BreadthDownloader(final int depth, final List<String> hosts, final CrawlJournal journal,
+                                  final Consumer<? super CrawlEvent> listener, final BooleanSupplier cancelled) {
+            this.cancelled = cancelled;
+            this.depth = depth;
+            this.hostFilter = HostFilter.of(hosts);
+            this.journal = journal;
+            this.listener = listener;
+            this.pendingAt = new AtomicLongArray(Math.max(depth, 0) + 1);
+            // Only the start URL has the full depth, so pages one step from it can never be upgraded
+            this.open = usedUrls.tracksDepth() ? Math.max(1, depth - 1) : 1;
+            for (int i = 0; i < open; i++) {
+                heldByDepth.add(new ArrayList<>());
+            }
+        }
+
+        private void run(final String url) {
+            schedule(url, depth);
+            // Restored downloads are only counted: they wait to be fed, or to be released with nothing pending above them
+            release();
+            if (pending.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void taskAdded(final int depth) {
+            pendingAt.incrementAndGet(depth);
+            pending.incrementAndGet();
+        }
+
+        private void taskDone(final int depth) {
+            if (pendingAt.decrementAndGet(depth) == 0 && open > 1) {
+                release();
             }
-            phaser.arriveAndAwaitAdvance();
-            if (depth > 1) {
-                Set<String> urlQueueNext = extracted.stream().filter(url -> !usedUrls.containsKey(url)).collect(Collectors.toSet());
-                run(urlQueueNext, depth - 1, hosts);
+            if (pending.decrementAndGet() == 0) {
+                finished.countDown();
             }
         }
 
-        private Document downloadDocument(final String url,
-                                          final List<String> hosts) {
+        // Results and the visited set are rebuilt from the journal, queued pages are only counted
+        private void restore() throws IOException {
+            journal.replay(new CrawlJournal.Records() {
+                @Override
+                public void scheduled(final String url, final int depth) {
+                    usedUrls.visit(url, depth);
+                }
+
+                @Override
+                public void downloaded(final String url) {
+                    success.add(url);
+                }
+
+                @Override
+                public void failed(final String url, final String message) {
+                    errors.put(url, new IOException(message));
+                }
+
+                @Override
+                public void extracted(final String url, final int depth) {
+                    extracted.merge(url, depth, Math::max);
+                }
+            });
+            journal.replay(new CrawlJournal.Records() {
+                @Override
+                public void scheduled(final String url, final int depth) {
+                    if (isQueued(url, depth)) {
+                        downloadAdded(depth);
+                    }
+                }
+            });
+        }
+
+        // Whether a scheduled record of the journal still stands for a download:
+        // it is not superseded by a greater depth and the page is neither failed nor downloaded and extracted
+        private boolean isQueued(final String url, final int depth) {
+            if (usedUrls.tracksDepth() && usedUrls.depth(url) != depth || errors.containsKey(url)) {
+                return false;
+            }
+            return !success.contains(url) || depth > 1 && extracted.getOrDefault(url, 0) < depth;
+        }
+
+        // Links of disallowed hosts are dropped here, before the visited set and the host queues
+        private void schedule(final String url, final int depth) {
+            String host;
             try {
-                String host = URLUtils.getHost(url);
-                if (hosts != null && !hosts.contains(host)) {
-                    return null;
+                host = URLUtils.getHost(url);
+            } catch (MalformedURLException e) {
+                if (usedUrls.visit(url, depth) == 0) {
+                    failed(url, e);
                 }
-                Document document;
-                Semaphore hostSemaphore = hostSemaphores.computeIfAbsent(host, h -> new Semaphore(hostDownloadsLimit));
+                return;
+            }
+            if (!hostFilter.allows(host)) {
+                return;
+            }
+            if (scorer != null) {
+                scorer.linked(url, host);
+            }
+            if (stopped()) {
+                return;
+            }
+            if (journal == null && depth < open) {
+                synchronized (held) {
+                    if (depth < open) {
+                        // Visited under the lock, so an upgrade of the URL always finds it held
+                        scheduled(url, host, depth, usedUrls.visit(url, depth));
+                        return;
+                    }
+                }
+            }
+            scheduled(url, host, depth, usedUrls.visit(url, depth));
+        }
+
+        private void scheduled(final String url, final String host, final int depth, final int known) {
+            if (known >= depth) {
+                return;
+            }
+            if (journal != null) {
+                // The record is the queued download, counted before feed() may read it; an earlier one is now stale
+                if (known == 0) {
+                    downloadAdded(depth);
+                } else {
+                    moved(known, depth);
+                }
+                journal.scheduled(url, depth);
+                feed();
+                return;
+            }
+            if (known == 0) {
+                downloadAdded(depth);
+                holdOrSubmit(url, host, depth);
+            } else {
+                upgrade(url, host, depth);
+            }
+        }
+
+        private void downloadAdded(final int depth) {
+            taskAdded(depth);
+            metrics.queued(depth);
+        }
+
+        private void holdOrSubmit(final String url, final String host, final int depth) {
+            if (depth < open) {
+                synchronized (held) {
+                    if (depth < open) {
+                        hold(url, host, depth);
+                        return;
+                    }
+                }
+            }
+            submitDownload(url, host, depth);
+        }
+
+        // Called with the lock of held
+        private void hold(final String url, final String host, final int depth) {
+            held.put(url, depth);
+            heldByDepth.get(depth).add(new Held(url, host, depth));
+        }
+
+        private void upgrade(final String url, final String host, final int depth) {
+            synchronized (held) {
+                Integer previous = held.get(url);
+                // Downloads that are not held have started with a final depth
+                if (previous == null || previous >= depth) {
+                    return;
+                }
+                moved(previous, depth);
+                if (depth < open) {
+                    hold(url, host, depth);
+                    return;
+                }
+                held.remove(url);
+            }
+            submitDownload(url, host, depth);
+        }
+
+        private void moved(final int from, final int to) {
+            pendingAt.incrementAndGet(to);
+            pendingAt.decrementAndGet(from);
+            metrics.queued(to);
+            metrics.dequeued(from);
+        }
+
+        // Opens lower depths while nothing pending can upgrade their downloads
+        private void release() {
+            List<Held> released = new ArrayList<>();
+            synchronized (held) {
+                while (open > 1 && pendingAt.get(open + 1) == 0) {
+                    open--;
+                    if (journal != null) {
+                        continue;
+                    }
+                    for (Held download : heldByDepth.get(open)) {
+                        if (held.remove(download.url, download.depth)) {
+                            released.add(download);
+                        }
+                    }
+                    heldByDepth.set(open, List.of());
+                }
+            }
+            for (Held download : released) {
+                submitDownload(download.url, download.host, download.depth);
+            }
+            if (journal != null) {
+                feed();
+            }
+        }
+
+        // Reads queued downloads of open depths back from the journal, deepest first, up to JOURNAL_BATCH in memory.
+        // One thread reads at a time; a request made meanwhile is served by it before it leaves
+        private void feed() {
+            feedRequested = true;
+            // Finished only after reading: the last one may end the crawl and close the journal
+            List<Integer> dropped = new ArrayList<>();
+            while (feedRequested && feeding.compareAndSet(false, true)) {
+                feedRequested = false;
+                List<Held> batch = new ArrayList<>();
                 try {
-                    hostSemaphore.acquire();
-                    document = downloader.download(url);
-                } catch (InterruptedException e) {
-                    System.err.println("Unexpected error occurred while downloading document: " + e.getMessage());
-                    return null;
+                    for (int d = depth; d >= open && fed.get() < JOURNAL_BATCH; d--) {
+                        String url;
+                        while (fed.get() < JOURNAL_BATCH && (url = journal.nextScheduled(d)) != null) {
+                            if (!isQueued(url, d)) {
+                                continue;
+                            }
+                            if (stopped() || closed) {
+                                dropped.add(d);
+                                continue;
+                            }
+                            try {
+                                batch.add(new Held(url, URLUtils.getHost(url), d));
+                                fed.incrementAndGet();
+                            } catch (MalformedURLException e) {
+                                failed(url, e);
+                                dropped.add(d);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // Queued pages are lost with the journal, so nothing would finish them
+                    System.err.println("Unable to read crawl journal, stopping the crawl: " + e.getMessage());
+                    finished.countDown();
+                } finally {
+                    feeding.set(false);
+                }
+                for (Held download : batch) {
+                    submitDownload(download.url, download.host, download.depth);
+                }
+            }
+            dropped.forEach(this::dropped);
+        }
+
+        private void submit(final ExecutorService service, final Runnable task, final int depth) {
+            taskAdded(depth);
+            try {
+                service.execute(new CrawlTask(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        taskDone(depth);
+                    }
+                }, () -> taskDone(depth)));
+            } catch (RejectedExecutionException e) {
+                taskDone(depth);
+            }
+        }
+
+        private void failed(final String url, final IOException e) {
+            if (listener != null) {
+                listener.accept(new CrawlEvent(url, null, e));
+                return;
+            }
+            errors.put(url, e);
+            if (journal != null) {
+                journal.failed(url, e);
+            }
+        }
+
+        /**
+         * Queues download of {@code url}, already counted as pending with its final {@code depth}.
+         */
+        private void submitDownload(final String url, final String host, final int depth) {
+            HostQueue hostQueue = hostQueues.computeIfAbsent(host,
+                    h -> new HostQueue(downloadExecutor, hostDownloadsLimit, adaptivePerHost));
+            double priority = scorer == null ? 0 : scorer.score(url, host, depth);
+            hostQueue.add(() -> {
+                try {
+                    // Pages still queued when the budget runs out are dropped, so the best ones are downloaded
+                    if (!stopped() && pagesLeft.getAndDecrement() > 0) {
+                        download(url, depth, hostQueue);
+                    }
                 } finally {
-                    hostSemaphore.release();
+                    downloadFinished(depth);
+                }
+            }, () -> downloadFinished(depth), priority);
+        }
+
+        private boolean stopped() {
+            return pagesLeft.get() <= 0 || System.nanoTime() - deadline > 0 || cancelled.getAsBoolean();
+        }
+
+        private void downloadFinished(final int depth) {
+            if (journal != null) {
+                fed.decrementAndGet();
+                // Before the task is done, so the crawl and its journal are still open
+                feed();
+            }
+            dropped(depth);
+        }
+
+        private void dropped(final int depth) {
+            metrics.dequeued(depth);
+            taskDone(depth);
+        }
+
+        private void download(final String url, final int depth, final HostQueue hostQueue) {
+            Document document = downloadDocument(url, hostQueue);
+            if (document != null && depth > 1) {
+                submit(extractService, () -> extractLinks(url, document, depth), depth);
+            }
+        }
+
+        private Document downloadDocument(final String url, final HostQueue hostQueue) {
+            long start = System.nanoTime();
+            try {
+                Document document = downloader.download(url);
+                long elapsed = System.nanoTime() - start;
+                hostQueue.report(elapsed, false);
+                metrics.downloaded(elapsed);
+                if (listener != null) {
+                    listener.accept(new CrawlEvent(url, document, null));
+                } else if (success.add(url) && journal != null) {
+                    journal.downloaded(url);
                 }
-                success.add(url);
                 return document;
             } catch (IOException e) {
-                errors.put(url, e);
+                if (closed || Thread.currentThread().isInterrupted() || e instanceof InterruptedIOException) {
+                    // Cut off by close(), not a property of the page: a resumed crawl downloads it again
+                    return null;
+                }
+                long elapsed = System.nanoTime() - start;
+                hostQueue.report(elapsed, true);
+                metrics.failed(e, elapsed);
+                // A page downloaded before a resume keeps its first result
+                if (!success.contains(url)) {
+                    failed(url, e);
+                }
                 return null;
             }
         }
 
-        private void extractLinks(final Set<String> extracted,
-                                  final Document document) {
+        // Links go straight through the visited set to the host queues, nothing is collected per depth
+        private void extractLinks(final String url, final Document document, final int depth) {
             try {
-                extracted.addAll(document.extractLinks());
+                long start = System.nanoTime();
+                List<String> links = document.extractLinks();
+                metrics.extracted(links.size(), System.nanoTime() - start);
+                for (String link : links) {
+                    schedule(link, depth - 1);
+                }
+                if (journal != null) {
+                    journal.extracted(url, depth);
+                }
             } catch (IOException e) {
                 System.err.println("Unexpected error occurred while extracting links: " + e.getMessage());
             }
@@ -128,14 +610,64 @@ public class WebCrawler implements AdvancedCrawler {
         }
     }
 
+    private record Held(String url, String host, int depth) {
+    }
+
+    public CrawlerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns current crawler counters together with statistics of every host.
+     */
+    public CrawlerMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot(getHostStatistics());
+    }
+
+    public synchronized void registerMBean(String name) throws JMException {
+        if (mBeanName != null) {
+            throw new IllegalStateException("Metrics MBean is already registered as " + mBeanName);
+        }
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mBeanName = objectName;
+    }
+
+    private synchronized void unregisterMBean() {
+        if (mBeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        } catch (JMException e) {
+            System.err.println("Unable to unregister metrics MBean: " + e.getMessage());
+        }
+        mBeanName = null;
+    }
+
+    /**
+     * Returns download slots, load and latency of every host seen so far.
+     */
+    public List<HostStatistics> getHostStatistics() {
+        List<HostStatistics> statistics = new ArrayList<>();
+        hostQueues.forEach((host, queue) -> statistics.add(queue.statistics(host)));
+        return statistics;
+    }
+
     @Override
     public void close() {
+        closed = true;
+        hostQueues.values().forEach(HostQueue::cancelAll);
+        if (downloadLimit != null) {
+            downloadLimit.cancelAll();
+        }
         shutdownNow(downloadService);
         shutdownNow(extractService);
+        unregisterMBean();
     }
 
     private static void shutdownNow(ExecutorService service) {
-        service.shutdownNow();
+        service.shutdownNow().forEach(CrawlTask::cancel);
         while (true) {
             try {
                 if (service.awaitTermination(100, TimeUnit.MILLISECONDS)) {
@@ -148,8 +680,19 @@ public class WebCrawler implements AdvancedCrawler {
 
     private final Downloader downloader;
     private final int hostDownloadsLimit;
+    private final boolean adaptivePerHost;
+    private final Supplier<VisitedSet> visitedSetFactory;
+    private final Supplier<UrlScorer> scorers;
+    private final long pageBudget;
+    private final long timeBudgetNanos;
 
     private final ExecutorService downloadService, extractService;
+    // Global limit of concurrent downloads when downloadService is unbounded, null otherwise
+    private final HostQueue downloadLimit;
+    private final Executor downloadExecutor;
 
-    private final ConcurrentMap<String, Semaphore> hostSemaphores = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+    private final CrawlerMetrics metrics = new CrawlerMetrics();
+    private ObjectName mBeanName;
+    private volatile boolean closed;
 }
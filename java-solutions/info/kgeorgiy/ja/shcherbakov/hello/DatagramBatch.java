@@ -0,0 +1,95 @@
+package info.kgeorgiy.ja.shcherbakov.hello;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/**
+ * Reusable batch of datagrams in direct buffers, filled from a non-blocking channel and flushed back to it.
+ * Buffers are allocated on first use and kept, so a warmed-up batch allocates nothing.
+ */
+class DatagramBatch {
+    private final ByteBuffer[] buffers;
+    private final SocketAddress[] addresses;
+    private final int offset;
+    private int size;
+    private int sent;
+
+    /**
+     * Creates batch of up to {@code capacity} datagrams, each received after {@code offset} reserved bytes.
+     */
+    DatagramBatch(final int capacity, final int offset) {
+        this.buffers = new ByteBuffer[capacity];
+        this.addresses = new SocketAddress[capacity];
+        this.offset = offset;
+    }
+
+    /**
+     * Receives datagrams until the channel has none or the batch is full; returns number of datagrams received.
+     */
+    int receive(final DatagramChannel channel) throws IOException {
+        int received = 0;
+        while (size < buffers.length) {
+            if (buffers[size] == null) {
+                buffers[size] = ByteBuffer.allocateDirect(offset + UDPUtilities.MAX_DATAGRAM_SIZE);
+            }
+            ByteBuffer buffer = buffers[size];
+            buffer.clear().position(offset);
+            SocketAddress address = channel.receive(buffer);
+            if (address == null) {
+                break;
+            }
+            buffer.flip();
+            addresses[size++] = address;
+            received++;
+        }
+        return received;
+    }
+
+    /**
+     * Writes {@code prefix} into the reserved bytes of every datagram.
+     */
+    void prefix(final byte[] prefix) {
+        for (int i = 0; i < size; i++) {
+            buffers[i].put(offset - prefix.length, prefix);
+        }
+    }
+
+    /**
+     * Sends datagrams back to their sources until all are sent or the channel's send buffer is full;
+     * returns whether the whole batch is sent.
+     */
+    boolean send(final DatagramChannel channel) {
+        while (sent < size) {
+            try {
+                if (channel.send(buffers[sent], addresses[sent]) == 0) {
+                    return false;
+                }
+            } catch (IOException e) {
+                System.err.println("Send error: " + e.getMessage());
+            }
+            sent++;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == buffers.length;
+    }
+
+    void clear() {
+        Arrays.fill(addresses, 0, size, null);
+        size = 0;
+        sent = 0;
+    }
+}
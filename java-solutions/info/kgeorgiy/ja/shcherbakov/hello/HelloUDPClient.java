@@ -3,20 +3,25 @@ package info.kgeorgiy.ja.shcherbakov.hello;
 import info.kgeorgiy.java.advanced.hello.HelloClient;
 
 import java.io.IOException;
-import java.net.*;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.*;
-import java.util.function.Predicate;
+import java.util.concurrent.TimeUnit;
 
 public class HelloUDPClient implements HelloClient {
 
     public static void main(String[] args) {
-        if (args.length != 5 || Arrays.stream(args).anyMatch(Objects::isNull)) {
-            System.err.println("HelloUDPClient hostAddress hostPort requestPrefix threadsNumber requestsNumber");
+        if (args.length != 5 && args.length != 6 || Arrays.stream(args).anyMatch(Objects::isNull)) {
+            System.err.println("HelloUDPClient hostAddress hostPort requestPrefix threadsNumber requestsNumber [window]");
             return;
         }
         try {
@@ -25,146 +30,312 @@ public class HelloUDPClient implements HelloClient {
             String requestPrefix = args[2];
             int threadsNumber = Integer.parseInt(args[3]);
             int requestsNumber = Integer.parseInt(args[4]);
-            new HelloUDPClient().run(hostName, hostPort, requestPrefix, threadsNumber, requestsNumber);
+            int window = args.length == 6 ? Integer.parseInt(args[5]) : 1;
+            new HelloUDPClient(window).run(hostName, hostPort, requestPrefix, threadsNumber, requestsNumber);
         } catch (NumberFormatException e) {
-            System.err.println("Host port, threads number and requests number must be integer");
-            System.err.println("HelloUDPClient hostAddress hostPort requestPrefix threadsNumber requestsNumber");
+            System.err.println("Host port, threads number, requests number and window must be integer");
+            System.err.println("HelloUDPClient hostAddress hostPort requestPrefix threadsNumber requestsNumber [window]");
             System.err.println(e.getMessage());
         }
     }
 
+    public HelloUDPClient() {
+        this(1);
+    }
+
+    /**
+     * Creates client keeping up to {@code window} requests of every sender in flight at once.
+     */
+    public HelloUDPClient(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Runs all senders from the calling thread: every sender has its own non-blocking channel,
+     * and one selector waits for responses, free send buffers and the nearest retransmission timer.
+     */
     @Override
     public void run(String host, int port, String prefix, int threads, int requests) {
         SocketAddress serverSocketAddress = new InetSocketAddress(host, port);
-        ExecutorService senders = Executors.newFixedThreadPool(threads);
-        List<Future<?>> futures = new ArrayList<>();
-        for (int i = 1; i <= threads; i++) {
-            futures.add(senders.submit(messagesSender(serverSocketAddress, prefix, i, requests)));
-        }
-
-        try {
-            awaitSenders(futures);
-        } catch (InterruptedException e) {
-            System.err.println("Run thread was interrupted");
-            System.err.println("Shutdown all senders...");
-            System.err.println(e.getMessage());
-        } finally {
-            senders.shutdownNow();
+        try (Selector selector = Selector.open()) {
+            List<Sender> senders = new ArrayList<>();
+            try {
+                for (int i = 1; i <= threads; i++) {
+                    DatagramChannel channel = DatagramChannel.open();
+                    Sender sender = new Sender(channel, prefix, i, requests);
+                    senders.add(sender);
+                    channel.configureBlocking(false);
+                    channel.connect(serverSocketAddress);
+                    sender.key = channel.register(selector, SelectionKey.OP_READ, sender);
+                }
+                ByteBuffer buffer = ByteBuffer.allocateDirect(UDPUtilities.MAX_DATAGRAM_SIZE);
+                select(selector, senders, buffer);
+            } finally {
+                for (Sender sender : senders) {
+                    sender.channel.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Channel exception while initialize: " + e.getMessage());
         }
     }
 
-    private void awaitSenders(List<Future<?>> futures) throws InterruptedException {
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (ExecutionException e) {
-                System.err.println("Error while sending requests: " + e.getMessage());
+    private void select(Selector selector, List<Sender> senders, ByteBuffer buffer) throws IOException {
+        int active = senders.size();
+        for (Sender sender : senders) {
+            if (sender.isDone()) {
+                sender.key.cancel();
+                active--;
             }
         }
+        while (active > 0 && !Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            for (Sender sender : senders) {
+                if (sender.key.isValid()) {
+                    boolean sending = sender.hasWork(now);
+                    sender.key.interestOps(SelectionKey.OP_READ | (sending ? SelectionKey.OP_WRITE : 0));
+                    if (!sending) {
+                        wait = Math.min(wait, sender.nextDeadline() - now);
+                    }
+                }
+            }
+            selector.select(wait == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            for (SelectionKey key : selector.selectedKeys()) {
+                Sender sender = (Sender) key.attachment();
+                if (key.isReadable()) {
+                    sender.receive(buffer);
+                }
+                if (key.isWritable()) {
+                    sender.send(System.nanoTime());
+                }
+                if (sender.isDone()) {
+                    key.cancel();
+                    active--;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
     }
 
-    private String getMessage(String prefix, int threadNumber, int requestNumber) {
+    private static String getMessage(String prefix, int threadNumber, int requestNumber) {
         return String.format("%s%d_%d", prefix, threadNumber, requestNumber);
     }
 
-    private void sendMessage(DatagramSocket socket, DatagramPacket requestPacket, Predicate<DatagramPacket> checkResponse) {
-        while (true) {
-            if (Thread.interrupted()) {
-                Thread.currentThread().interrupt();
-                break;
+    // Requests of one logical sender; request numbers in flight and their retransmission deadlines are kept in slots.
+    // Retransmission timeout follows Jacobson/Karels: smoothed RTT plus four deviations, doubled on every timeout.
+    private class Sender {
+        private final DatagramChannel channel;
+        private final String prefix;
+        private final int thread;
+        private final int requests;
+        private final int[] inFlight = new int[window];
+        private final long[] deadlines = new long[window];
+        private final long[] sentAt = new long[window];
+        // Karn's rule: responses to retransmitted requests are ambiguous and give no RTT sample
+        private final boolean[] retransmitted = new boolean[window];
+        private long smoothedRtt = -1;
+        private long rttVariance;
+        private long timeout = TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT);
+        private int nextRequest = 1;
+        private int inFlightCount;
+        private SelectionKey key;
+
+        private Sender(DatagramChannel channel, String prefix, int thread, int requests) {
+            this.channel = channel;
+            this.prefix = prefix;
+            this.thread = thread;
+            this.requests = requests;
+        }
+
+        private boolean isDone() {
+            return nextRequest > requests && inFlightCount == 0;
+        }
+
+        private boolean hasWork(long now) {
+            return inFlightCount < window && nextRequest <= requests || nextDeadline() <= now;
+        }
+
+        private long nextDeadline() {
+            long deadline = Long.MAX_VALUE;
+            for (int slot = 0; slot < window; slot++) {
+                if (inFlight[slot] != 0) {
+                    deadline = Math.min(deadline, deadlines[slot]);
+                }
+            }
+            return deadline;
+        }
+
+        private void send(long now) {
+            boolean expired = false;
+            for (int slot = 0; slot < window; slot++) {
+                if (inFlight[slot] != 0 && deadlines[slot] <= now) {
+                    if (!expired) {
+                        // One backoff per timeout event, however many requests it lost
+                        timeout = Math.min(timeout * 2, MAX_TIMEOUT);
+                        expired = true;
+                    }
+                    // Lost request or response, send again
+                    retransmitted[slot] = true;
+                    if (!send(slot, now)) {
+                        return;
+                    }
+                }
+            }
+            for (int slot = 0; slot < window && nextRequest <= requests; slot++) {
+                if (inFlight[slot] == 0) {
+                    inFlight[slot] = nextRequest++;
+                    inFlightCount++;
+                    retransmitted[slot] = false;
+                    System.out.println(getMessage(prefix, thread, inFlight[slot]));
+                    if (!send(slot, now)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void acknowledged(int slot, long now) {
+            if (!retransmitted[slot]) {
+                long rtt = now - sentAt[slot];
+                if (smoothedRtt < 0) {
+                    smoothedRtt = rtt;
+                    rttVariance = rtt / 2;
+                } else {
+                    rttVariance += (Math.abs(smoothedRtt - rtt) - rttVariance) / 4;
+                    smoothedRtt += (rtt - smoothedRtt) / 8;
+                }
+                timeout = Math.max(MIN_TIMEOUT, Math.min(smoothedRtt + 4 * rttVariance, MAX_TIMEOUT));
             }
+            inFlight[slot] = 0;
+            inFlightCount--;
+        }
+
+        private boolean send(int slot, long now) {
+            byte[] data = getMessage(prefix, thread, inFlight[slot]).getBytes(StandardCharsets.UTF_8);
             try {
-                socket.send(requestPacket);
-                DatagramPacket responsePacket = UDPUtilities.lastReceive(socket);
-                if (checkResponse.test(responsePacket)) {
-                    System.out.println(UDPUtilities.getString(responsePacket));
-                    break;
-                }
-            } catch (SocketTimeoutException ignored) {
-            } catch (SocketException e) {
-                System.err.println("Socket exception: " + e.getMessage());
+                // Zero bytes sent means a full send buffer: the request stays due until OP_WRITE
+                if (channel.write(ByteBuffer.wrap(data)) == 0) {
+                    return false;
+                }
             } catch (IOException e) {
-                System.err.println("Send/receive exception: " + e.getMessage());
+                System.err.println("Send exception: " + e.getMessage());
             }
+            sentAt[slot] = now;
+            deadlines[slot] = now + timeout;
+            return true;
         }
-    }
 
-    private Runnable messagesSender(SocketAddress serverSocketAddress, String prefix, int threadNumber, int count) {
-        return () -> {
-            try (DatagramSocket socket = new DatagramSocket()) {
-                socket.setSoTimeout(RESPONSE_TIMEOUT);
-                for (int i = 1; i <= count; i++) {
-                    String message = getMessage(prefix, threadNumber, i);
-                    System.out.println(message);
-                    byte[] data = message.getBytes(StandardCharsets.UTF_8);
-                    DatagramPacket requestPacket = UDPUtilities.getRequestPacket(data, serverSocketAddress);
-                    sendMessage(socket, requestPacket, idCheck(prefix, threadNumber, i));
-                }
-            } catch (SocketException e) {
-                System.err.println("Socket exception while initialize: " + e.getMessage());
-            }
-        };
+        private void receive(ByteBuffer buffer) {
+            while (true) {
+                buffer.clear();
+                try {
+                    if (channel.receive(buffer) == null) {
+                        return;
+                    }
+                } catch (PortUnreachableException ignored) {
+                    // Server is not up yet, requests are retransmitted on timeout
+                    continue;
+                } catch (IOException e) {
+                    System.err.println("Receive exception: " + e.getMessage());
+                    return;
+                }
+                buffer.flip();
+                long ids = responseIds(buffer);
+                String response = null;
+                if (ids == NOT_ASCII) {
+                    response = StandardCharsets.UTF_8.decode(buffer).toString();
+                    ids = responseIds(response);
+                }
+                // Request numbers start from 1, zero marks a free slot
+                if (ids == INVALID || ids >>> 32 != thread || (int) ids == 0) {
+                    continue;
+                }
+                int request = (int) ids;
+                for (int slot = 0; slot < window; slot++) {
+                    if (inFlight[slot] == request) {
+                        // Only accepted responses are decoded, for printing
+                        System.out.println(response != null ? response : StandardCharsets.UTF_8.decode(buffer));
+                        acknowledged(slot, System.nanoTime());
+                        break;
+                    }
+                }
+            }
+        }
     }
 
-    private static Predicate<DatagramPacket> messageCheck(String prefix, int thread, int request) {
-        return packet -> {
-            String response = UDPUtilities.getString(packet);
-            String[] parts = response.split(", ");
-            if (parts.length != 2) {
-                return false;
+    // Response numbers packed by responseIds: thread in the high half, request in the low half
+    private static final long INVALID = -1;
+    private static final long NOT_ASCII = -2;
+
+    /**
+     * Returns thread and request numbers of a response: the only two numbers in it, read backwards from the end
+     * of the buffer without allocating. Returns {@link #NOT_ASCII} when the response has to be decoded first.
+     */
+    private static long responseIds(ByteBuffer buffer) {
+        long request = 0;
+        long thread = 0;
+        int found = 0;
+        int i = buffer.limit() - 1;
+        while (i >= buffer.position()) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                // Digits of other scripts are non-ASCII
+                return NOT_ASCII;
             }
-            String requestMirror = parts[1];
-            if (!requestMirror.startsWith(prefix)) {
-                return false;
+            if (b < '0' || b > '9') {
+                i--;
+                continue;
             }
-            String truncate = requestMirror.substring(prefix.length());
-            try {
-                if (truncate.isEmpty()) {
-                    return false;
-                }
-                for (int i = 1; i < truncate.length() - 1; i++) {
-                    if (truncate.charAt(i) == '_') {
-                        int threadResp = Integer.parseInt(truncate.substring(0, i));
-                        int requestResp = Integer.parseInt(truncate.substring(i + 1));
-                        return threadResp == thread && requestResp == request;
-                    }
+            if (found == 2) {
+                return INVALID;
+            }
+            long value = 0;
+            for (long scale = 1; i >= buffer.position() && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i--) {
+                value += (buffer.get(i) - '0') * scale;
+                scale *= 10;
+                if (value > Integer.MAX_VALUE) {
+                    return INVALID;
                 }
-            } catch (NumberFormatException ignored) {
             }
-            return false;
-        };
+            if (found++ == 0) {
+                request = value;
+            } else {
+                thread = value;
+            }
+        }
+        return found == 2 ? thread << 32 | request : INVALID;
     }
 
-    private static Predicate<DatagramPacket> idCheck(String prefix, int thread, int request) {
-        return packet -> {
-            String response = UDPUtilities.getString(packet);
-            try {
-                List<Integer> integers = new ArrayList<>();
-                int i = response.length() - 1;
-                while (i >= 0) {
-                    if (Character.isDigit(response.charAt(i))) {
-                        int j = i;
-                        while (j >= 0 && Character.isDigit(response.charAt(j))) {
-                            j--;
-                        }
-                        integers.add(Integer.parseInt(response.substring(j + 1, i + 1)));
-                        i = j;
-                    } else {
-                        i--;
+    private static long responseIds(String response) {
+        List<Integer> integers = new ArrayList<>();
+        try {
+            int i = response.length() - 1;
+            while (i >= 0) {
+                if (Character.isDigit(response.charAt(i))) {
+                    int j = i;
+                    while (j >= 0 && Character.isDigit(response.charAt(j))) {
+                        j--;
                     }
+                    integers.add(Integer.parseInt(response.substring(j + 1, i + 1)));
+                    i = j;
+                } else {
+                    i--;
                 }
-                if (integers.size() != 2) {
-                    return false;
-                }
-                int threadResp = integers.get(1);
-                int requestResp = integers.get(0);
-                return threadResp == thread && requestResp == request;
-            } catch (NumberFormatException ignored) {
             }
-            return false;
-        };
+        } catch (NumberFormatException ignored) {
+            return INVALID;
+        }
+        return integers.size() == 2 ? (long) integers.get(1) << 32 | integers.get(0) : INVALID;
     }
 
-
+    // Initial retransmission timeout, before the first RTT sample
     private static final int RESPONSE_TIMEOUT = 100;
+    // Selector timeouts have millisecond resolution
+    private static final long MIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+    private final int window;
 }
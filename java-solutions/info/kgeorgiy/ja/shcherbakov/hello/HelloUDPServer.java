@@ -3,85 +3,276 @@ package info.kgeorgiy.ja.shcherbakov.hello;
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Function;
-
 
+/**
+ * Non-blocking server: one I/O thread receives and sends through a selector, {@code threads} workers build responses.
+ * The I/O thread drains all available datagrams into reusable batches, workers answer a batch at a time
+ * and the I/O thread flushes whole batches back. When every batch is in use the server stops reading
+ * and lets the socket buffer (and then the kernel) hold further datagrams.
+ * Requests are received into direct buffers after room for the {@code Hello, } prefix,
+ * so a response is built in place without decoding the request or allocating.
+ * In reuse-port mode every thread instead serves its own channel bound to the shared port with {@code SO_REUSEPORT},
+ * and the kernel spreads datagrams among them. Only Linux spreads unicast UDP that way; elsewhere one of the
+ * channels would get every datagram, so the server falls back to a single channel.
+ */
 public class HelloUDPServer implements HelloServer {
 
     public static void main(String[] args) {
-        if (args.length != 2 || args[0] == null || args[1] == null) {
-            System.err.println("HelloUDPServer port workThreads");
+        if (args.length != 2 && args.length != 3 || args[0] == null || args[1] == null) {
+            System.err.println("HelloUDPServer port workThreads [reusePort]");
             return;
         }
         try {
             int port = Integer.parseInt(args[0]);
             int workThreads = Integer.parseInt(args[1]);
+            boolean reusePort = args.length == 3 && Boolean.parseBoolean(args[2]);
 
-            new HelloUDPServer().start(port, workThreads);
+            new HelloUDPServer(reusePort).start(port, workThreads);
         } catch (NumberFormatException e) {
             System.err.println("port and workThreads must be integer");
-            System.err.println("HelloUDPServer port workThreads");
+            System.err.println("HelloUDPServer port workThreads [reusePort]");
             System.err.println(e.getMessage());
         }
     }
 
-    private void requestHandler(Function<DatagramPacket, DatagramPacket> requestHandler) {
-        while (!socket.isClosed() && !Thread.interrupted()) {
+    public HelloUDPServer() {
+        this(false);
+    }
+
+    /**
+     * Creates server that, if {@code reusePort} is set, shards the port among {@code threads} channels.
+     * Falls back to a single channel on systems other than Linux, where {@code SO_REUSEPORT}
+     * either is not supported or does not balance unicast datagrams.
+     */
+    public HelloUDPServer(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    @Override
+    public void start(int port, int threads) {
+        if (reusePort && startShards(port, threads)) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            System.err.println("Failed to start server: unable to create channel: " + e.getMessage());
+            close();
+            return;
+        }
+        for (int i = 0; i < BATCHES; i++) {
+            freeBatches.add(new DatagramBatch(BATCH_SIZE, HELLO_PREFIX.length));
+        }
+        service = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            service.submit(this::worker);
+        }
+        ioThread = new Thread(this::ioLoop, "HelloUDPServer-io");
+        ioThread.start();
+    }
+
+    private boolean startShards(int port, int threads) {
+        // BSD and macOS accept the option, but deliver each datagram to the last bound socket only
+        if (!System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("linux")) {
+            System.err.println("SO_REUSEPORT does not spread datagrams on this system, using a single channel");
+            return false;
+        }
+        try {
+            for (int i = 0; i < threads; i++) {
+                DatagramChannel shard = DatagramChannel.open();
+                shards.add(shard);
+                if (!shard.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    System.err.println("SO_REUSEPORT is not supported, using a single channel");
+                    closeShards();
+                    return false;
+                }
+                shard.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                shard.bind(new InetSocketAddress(port));
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to bind channels with SO_REUSEPORT, using a single channel: " + e.getMessage());
+            closeShards();
+            return false;
+        }
+        service = Executors.newFixedThreadPool(threads);
+        for (DatagramChannel shard : shards) {
+            service.submit(() -> serveShard(shard));
+        }
+        return true;
+    }
+
+    // Blocking loop over a channel of its own: nothing to share, so nothing to hand over between threads
+    private void serveShard(DatagramChannel shard) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HELLO_PREFIX.length + UDPUtilities.MAX_DATAGRAM_SIZE);
+        // Requests are received after the prefix, so it is written once
+        buffer.put(HELLO_PREFIX);
+        while (shard.isOpen()) {
             try {
-                DatagramPacket request = UDPUtilities.getResponsePacket(socket);
-                socket.receive(request);
-                DatagramPacket response = requestHandler.apply(request);
-                socket.send(response);
-            } catch (SocketException e) {
-                System.err.println("Socket error: " + e.getMessage());
-            } catch (SocketTimeoutException ignored) {
+                buffer.clear().position(HELLO_PREFIX.length);
+                SocketAddress address = shard.receive(buffer);
+                buffer.flip();
+                shard.send(buffer, address);
+                statistics.batchReceived(1);
+            } catch (ClosedChannelException e) {
+                return;
             } catch (IOException e) {
                 System.err.println("IO exception: " + e.getMessage());
             }
         }
-        Thread.currentThread().interrupt();
     }
 
-    @Override
-    public void start(int port, int threads) {
+    private void closeShards() {
+        for (DatagramChannel shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close channel: " + e.getMessage());
+            }
+        }
+        shards.clear();
+    }
+
+    private void ioLoop() {
         try {
-            socket = new DatagramSocket(port);
-            socket.setSoTimeout(RECEIVE_TIMEOUT);
-            service = Executors.newFixedThreadPool(threads);
-            for (int i = 0; i < threads; i++) {
-                service.submit(() -> requestHandler(this::helloResponse));
+            while (!Thread.interrupted() && channel.isOpen()) {
+                // Blocks until a datagram arrives, a response is ready or the server closes: no timeout polling
+                selector.select();
+                // Ready operations are stale when the selector was only woken up
+                if (selector.selectedKeys().remove(key)) {
+                    if (key.isReadable()) {
+                        receive();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        send();
+                    }
+                }
+                if (key.isValid()) {
+                    key.interestOps((freeBatches.isEmpty() ? 0 : SelectionKey.OP_READ)
+                            | (responses.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
             }
-        } catch (SocketException e) {
-            System.err.println("Failed to start server: unable to create socket: " + e.getMessage());
+        } catch (ClosedSelectorException ignored) {
+        } catch (IOException e) {
+            System.err.println("Selector error: " + e.getMessage());
         }
     }
 
-    private DatagramPacket helloResponse(DatagramPacket request) {
-        String requestMessage = UDPUtilities.getString(request);
-        String responseMessage = "Hello, " + requestMessage;
-        byte[] responseData = responseMessage.getBytes(StandardCharsets.UTF_8);
-        return new DatagramPacket(responseData, responseData.length, request.getSocketAddress());
+    // Drains the channel into free batches; a partially filled batch means the channel is empty
+    private void receive() {
+        DatagramBatch batch;
+        while ((batch = freeBatches.poll()) != null) {
+            try {
+                batch.receive(channel);
+            } catch (IOException e) {
+                System.err.println("Receive error: " + e.getMessage());
+            }
+            if (batch.isEmpty()) {
+                freeBatches.add(batch);
+                return;
+            }
+            statistics.batchReceived(batch.size());
+            boolean full = batch.isFull();
+            // Never fails: there are only BATCHES batches
+            requests.add(batch);
+            if (!full) {
+                return;
+            }
+        }
     }
 
+    private void worker() {
+        try {
+            while (!Thread.interrupted()) {
+                DatagramBatch batch = requests.take();
+                batch.prefix(HELLO_PREFIX);
+                responses.add(batch);
+                // One wakeup per batch rather than per datagram
+                selector.wakeup();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void send() {
+        DatagramBatch batch;
+        while ((batch = responses.peek()) != null) {
+            if (!batch.send(channel)) {
+                // Send buffer is full, OP_WRITE says when it drains
+                return;
+            }
+            responses.poll();
+            batch.clear();
+            freeBatches.add(batch);
+        }
+    }
+
+    /**
+     * Returns number of requests served, request rate since creation and distribution of receive batch sizes.
+     */
+    public ServerStatistics.Snapshot getStatistics() {
+        return statistics.snapshot();
+    }
 
     @Override
     public void close() {
-        if (socket != null) {
-            socket.close();
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close channel: " + e.getMessage());
         }
+        closeShards();
         if (service != null) {
             service.shutdownNow();
         }
+        if (ioThread != null) {
+            ioThread.interrupt();
+            try {
+                ioThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    private static final int RECEIVE_TIMEOUT = 10;
+    private static final byte[] HELLO_PREFIX = "Hello, ".getBytes(StandardCharsets.UTF_8);
+    // Requests received but not yet sent back are at most BATCHES * BATCH_SIZE
+    private static final int BATCHES = 16;
+    private static final int BATCH_SIZE = 32;
+    private final BlockingQueue<DatagramBatch> freeBatches = new ArrayBlockingQueue<>(BATCHES);
+    private final BlockingQueue<DatagramBatch> requests = new ArrayBlockingQueue<>(BATCHES);
+    private final BlockingQueue<DatagramBatch> responses = new ArrayBlockingQueue<>(BATCHES);
+    private final ServerStatistics statistics = new ServerStatistics(BATCH_SIZE);
     private ExecutorService service;
-    private DatagramSocket socket;
+    private Thread ioThread;
+    private Selector selector;
+    private DatagramChannel channel;
+    private SelectionKey key;
+    private final boolean reusePort;
+    private final List<DatagramChannel> shards = new ArrayList<>();
 }
@@ -0,0 +1,44 @@
+package info.kgeorgiy.ja.shcherbakov.hello;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request rate and receive batch sizes of {@link HelloUDPServer}.
+ * In reuse-port mode datagrams are served one at a time and count as batches of one.
+ */
+public class ServerStatistics {
+    private final long startNanos = System.nanoTime();
+    private final LongAdder packets = new LongAdder();
+    private final AtomicLongArray batchSizes;
+
+    ServerStatistics(int maxBatchSize) {
+        batchSizes = new AtomicLongArray(maxBatchSize + 1);
+    }
+
+    void batchReceived(int size) {
+        packets.add(size);
+        batchSizes.incrementAndGet(size);
+    }
+
+    public Snapshot snapshot() {
+        long[] sizes = new long[batchSizes.length()];
+        long batches = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = batchSizes.get(i);
+            batches += sizes[i];
+        }
+        long total = packets.sum();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return new Snapshot(total, batches, total / seconds, sizes);
+    }
+
+    /**
+     * Counters at one moment; {@code batchSizes[n]} is the number of receive batches of {@code n} datagrams.
+     */
+    public record Snapshot(long packets, long batches, double packetsPerSecond, long[] batchSizes) {
+        public double meanBatchSize() {
+            return batches == 0 ? 0 : (double) packets / batches;
+        }
+    }
+}